@@ -116,6 +116,19 @@ public class BasicNetwork implements Network {
                             entry.responseHeaders, true);
                 }
 
+                // Let streaming requests read the content directly from the connection.
+                if (statusCode >= 200 && statusCode <= 299 && httpResponse.getEntity() != null &&
+                        request instanceof StreamingRequest &&
+                        ((StreamingRequest) request).shouldStream()) {
+                    streamEntity((StreamingRequest) request, httpResponse.getEntity(), responseHeaders);
+                    responseContents = new byte[0];
+
+                    long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+                    logSlowRequests(requestLifetime, request, responseContents, statusLine);
+
+                    return new NetworkResponse(statusCode, responseContents, responseHeaders, false);
+                }
+
                 // Some responses such as 204s do not have content.  We must check.
                 if (httpResponse.getEntity() != null) {
                   responseContents = entityToBytes(httpResponse.getEntity());
@@ -250,6 +263,24 @@ public class BasicNetwork implements Network {
         }
     }
 
+    /** Hands the contents of HttpEntity to a streaming request. */
+    private void streamEntity(StreamingRequest request, HttpEntity entity,
+            Map<String, String> headers) throws IOException, ServerError {
+        try {
+            InputStream in = entity.getContent();
+            if (in == null) {
+                throw new ServerError();
+            }
+            request.readStream(in, headers);
+        } finally {
+            try {
+                entity.consumeContent();
+            } catch (IOException e) {
+                VolleyLog.v("Error occured when calling consumingContent");
+            }
+        }
+    }
+
     /**
      * Converts Headers[] to Map<String, String>.
      */
@@ -0,0 +1,29 @@
+package com.android.volley.toolbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A request that can read a successful response body directly from the connection, instead of
+ * waiting for {@link BasicNetwork} to buffer it completely.
+ * <p>When streamed, the {@link com.android.volley.NetworkResponse} passed to
+ * {@code parseNetworkResponse} has an empty body, the request must keep the result of
+ * {@link #readStream(InputStream, Map)} itself.
+ */
+public interface StreamingRequest {
+    /**
+     * @return {@code true} to receive the body through {@link #readStream(InputStream, Map)}.
+     */
+    boolean shouldStream();
+
+    /**
+     * Called on the network thread with the body of a 2xx response. Can be called again when the
+     * request is retried.
+     *
+     * @param inputStream the response body, closed for you.
+     * @param headers     the response headers.
+     * @throws IOException when reading from the connection failed.
+     */
+    void readStream(InputStream inputStream, Map<String, String> headers) throws IOException;
+}
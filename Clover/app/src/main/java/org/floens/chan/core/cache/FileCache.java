@@ -19,19 +19,18 @@ package org.floens.chan.core.cache;
 
 import android.support.annotation.MainThread;
 
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.utils.Logger;
 import org.floens.chan.utils.Time;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
-import okhttp3.Protocol;
 
 public class FileCache implements FileCacheDownloader.Callback {
     private static final String TAG = "FileCache";
@@ -46,15 +45,14 @@ public class FileCache implements FileCacheDownloader.Callback {
 
     private List<FileCacheDownloader> downloaders = new ArrayList<>();
 
-    public FileCache(File directory, long maxSize, String userAgent) {
+    public FileCache(File directory, long maxSize, String userAgent, OkHttpClient okHttpClient) {
         this.userAgent = userAgent;
 
-        httpClient = new OkHttpClient.Builder()
+        // Shares the connection pool with the other requests, HTTP/2 is used when available.
+        httpClient = okHttpClient.newBuilder()
                 .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
                 .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
                 .writeTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
-                // Disable SPDY, causes reproducible timeouts, only one download at the same time and other fun stuff
-                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
                 .build();
 
         cacheHandler = new CacheHandler(directory, maxSize);
@@ -81,6 +79,16 @@ public class FileCache implements FileCacheDownloader.Callback {
      */
     @MainThread
     public FileCacheDownloader downloadFile(String url, FileCacheListener listener) {
+        return downloadFile(url, RateLimiter.Priority.MEDIA, listener);
+    }
+
+    /**
+     * Same as {@link #downloadFile(String, FileCacheListener)}, with the priority for the
+     * {@link RateLimiter}. Downloads that are already running keep their priority.
+     */
+    @MainThread
+    public FileCacheDownloader downloadFile(String url, RateLimiter.Priority priority,
+                                            FileCacheListener listener) {
         FileCacheDownloader runningDownloaderForKey = getDownloaderByKey(url);
         if (runningDownloaderForKey != null) {
             runningDownloaderForKey.addListener(listener);
@@ -92,7 +100,7 @@ public class FileCache implements FileCacheDownloader.Callback {
             handleFileImmediatelyAvailable(listener, file);
             return null;
         } else {
-            return handleStartDownload(listener, file, url);
+            return handleStartDownload(listener, file, url, priority);
         }
     }
 
@@ -133,9 +141,9 @@ public class FileCache implements FileCacheDownloader.Callback {
     }
 
     private FileCacheDownloader handleStartDownload(
-            FileCacheListener listener, File file, String url) {
+            FileCacheListener listener, File file, String url, RateLimiter.Priority priority) {
         FileCacheDownloader downloader = FileCacheDownloader.fromCallbackClientUrlOutputUserAgent(
-                this, httpClient, url, file, userAgent);
+                this, httpClient, url, file, userAgent, priority);
         downloader.addListener(listener);
         downloader.execute(downloadPool);
         downloaders.add(downloader);
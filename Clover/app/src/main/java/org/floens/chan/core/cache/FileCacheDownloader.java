@@ -23,6 +23,7 @@ import android.support.annotation.AnyThread;
 import android.support.annotation.MainThread;
 import android.support.annotation.WorkerThread;
 
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.utils.Logger;
 
@@ -55,6 +56,7 @@ public class FileCacheDownloader implements Runnable {
     private final String url;
     private final File output;
     private final String userAgent;
+    private final RateLimiter.Priority priority;
     private final Handler handler;
 
     // Main thread only.
@@ -72,17 +74,19 @@ public class FileCacheDownloader implements Runnable {
 
     static FileCacheDownloader fromCallbackClientUrlOutputUserAgent(
             Callback callback, OkHttpClient httpClient, String url,
-            File output, String userAgent) {
-        return new FileCacheDownloader(callback, httpClient, url, output, userAgent);
+            File output, String userAgent, RateLimiter.Priority priority) {
+        return new FileCacheDownloader(callback, httpClient, url, output, userAgent, priority);
     }
 
     private FileCacheDownloader(Callback callback, OkHttpClient httpClient,
-                                String url, File output, String userAgent) {
+                                String url, File output, String userAgent,
+                                RateLimiter.Priority priority) {
         this.callback = callback;
         this.httpClient = httpClient;
         this.url = url;
         this.output = output;
         this.userAgent = userAgent;
+        this.priority = priority;
 
         handler = new Handler(Looper.getMainLooper());
     }
@@ -228,6 +232,7 @@ public class FileCacheDownloader implements Runnable {
         Request request = new Request.Builder()
                 .url(url)
                 .header("User-Agent", userAgent)
+                .tag(new RateLimiter.Tag(priority))
                 .build();
 
         call = httpClient.newBuilder()
@@ -0,0 +1,642 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.cache;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+
+import org.floens.chan.core.database.DatabaseManager;
+import org.floens.chan.core.database.DatabaseSavedReplyManager;
+import org.floens.chan.core.manager.CompiledFilters;
+import org.floens.chan.core.model.ChanThread;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostHttpIcon;
+import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.model.PostLinkable;
+import org.floens.chan.core.model.StyledText;
+import org.floens.chan.core.model.orm.Board;
+import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.utils.AndroidUtils;
+import org.floens.chan.utils.IOUtils;
+import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import okhttp3.HttpUrl;
+
+import static org.floens.chan.utils.AndroidUtils.getAppContext;
+
+/**
+ * Stores the last loaded state of threads on disk, so that a thread can be shown directly after
+ * the process was killed, and only the changes need to be loaded from the server.<br>
+ * The posts are stored in a binary format with their parsed comments, restoring a snapshot does not
+ * parse any html. The anonymize settings the comments were parsed with are stored with them, a
+ * snapshot written with other settings is ignored. The filters and the saved replies are not taken
+ * from the snapshot, they are evaluated again on the restored posts. The files are kept in the
+ * files directory so that the system does not clear them, the least recently written snapshots are
+ * removed above {@link #MAX_SNAPSHOTS}.
+ * <p>
+ * All disk access happens on one worker thread, writes of the same thread are coalesced.
+ */
+@Singleton
+public class ThreadSnapshotStore {
+    private static final String TAG = "ThreadSnapshotStore";
+    private static final String DIRECTORY_NAME = "thread_snapshots";
+    private static final int MAGIC = 0x43534e50;
+    private static final int VERSION = 3;
+    private static final int MAX_SNAPSHOTS = 150;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Tags of the values in links and styled runs.
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_INTEGER = 1;
+    private static final int VALUE_FLOAT = 2;
+    private static final int VALUE_BOOLEAN = 3;
+    private static final int VALUE_STRING = 4;
+    private static final int VALUE_THREAD_LINK = 5;
+    private static final int VALUE_LINKABLE = 6;
+
+    // The settings that change the parsed posts, stored as flags.
+    private static final int SETTING_ANONYMIZE = 1;
+    private static final int SETTING_ANONYMIZE_IDS = 1 << 1;
+    private static final int SETTING_SHOW_ANONYMOUS_NAME = 1 << 2;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final File directory;
+    private final DatabaseSavedReplyManager savedReplyManager;
+
+    // Snapshots waiting to be written, by file name. Guarded by itself.
+    private final Map<String, PendingWrite> pendingWrites = new HashMap<>();
+
+    @Inject
+    public ThreadSnapshotStore(DatabaseManager databaseManager) {
+        directory = new File(getAppContext().getFilesDir(), DIRECTORY_NAME);
+        savedReplyManager = databaseManager.getDatabaseSavedReplyManager();
+    }
+
+    /**
+     * Read the snapshot of the thread, the callback is called on the main thread with the snapshot
+     * or {@code null} if there is none or it was parsed with other settings.
+     *
+     * @param filters the filters of the board, evaluated on the restored posts
+     */
+    @MainThread
+    public void load(Loadable loadable, final CompiledFilters filters, final LoadCallback callback) {
+        final String name = getFileName(loadable);
+        if (name == null) {
+            callback.onSnapshotLoaded(null);
+            return;
+        }
+
+        final Board board = loadable.board;
+        final int threadNo = loadable.no;
+        final int settings = getParseSettings();
+        executor.execute(() -> {
+            Snapshot snapshot = read(new File(directory, name), board, threadNo, settings, filters);
+            AndroidUtils.runOnUiThread(() -> callback.onSnapshotLoaded(snapshot));
+        });
+    }
+
+    /**
+     * Write a snapshot of the thread with the validators of the response it was loaded from. The
+     * posts are collected now, the writing happens later.
+     */
+    @MainThread
+    public void save(ChanThread thread, String lastModified, String etag) {
+        final String name = getFileName(thread.loadable);
+        if (name == null || thread.posts.isEmpty()) {
+            return;
+        }
+
+        PendingWrite write = new PendingWrite(new ArrayList<>(thread.posts), thread.op,
+                getParseSettings(), lastModified, etag);
+
+        synchronized (pendingWrites) {
+            if (pendingWrites.put(name, write) != null) {
+                // The queued write will pick up the newer snapshot.
+                return;
+            }
+        }
+
+        executor.execute(() -> {
+            PendingWrite latest;
+            synchronized (pendingWrites) {
+                latest = pendingWrites.remove(name);
+            }
+            write(new File(directory, name), latest);
+            trim();
+        });
+    }
+
+    private String getFileName(Loadable loadable) {
+        if (!loadable.isThreadMode() || loadable.board == null) {
+            return null;
+        }
+        return loadable.siteId + "_" + loadable.boardCode + "_" + loadable.no;
+    }
+
+    private static int getParseSettings() {
+        return (ChanSettings.anonymize.get() ? SETTING_ANONYMIZE : 0) |
+                (ChanSettings.anonymizeIds.get() ? SETTING_ANONYMIZE_IDS : 0) |
+                (ChanSettings.showAnonymousName.get() ? SETTING_SHOW_ANONYMOUS_NAME : 0);
+    }
+
+    @WorkerThread
+    private Snapshot read(File file, Board board, int threadNo, int settings, CompiledFilters filters) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        long start = Time.startTiming();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Logger.w(TAG, "Ignoring snapshot with an unknown format " + file.getName());
+                return null;
+            }
+            if (in.readInt() != settings) {
+                Logger.d(TAG, "Ignoring snapshot parsed with other settings " + file.getName());
+                return null;
+            }
+
+            String lastModified = readString(in);
+            String etag = readString(in);
+
+            int opReplies = in.readInt();
+            int opImages = in.readInt();
+            int opUniqueIps = in.readInt();
+            long opLastModified = in.readLong();
+            boolean sticky = in.readBoolean();
+            boolean closed = in.readBoolean();
+            boolean archived = in.readBoolean();
+
+            int count = in.readInt();
+            List<Post> posts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Post.Builder builder = new Post.Builder()
+                        .board(board)
+                        .opId(threadNo);
+                boolean deleted = readPost(in, builder);
+                builder.isSavedReply(savedReplyManager.isSaved(board, builder.id));
+                if (builder.op) {
+                    builder.replies(opReplies)
+                            .images(opImages)
+                            .uniqueIps(opUniqueIps)
+                            .lastModified(opLastModified)
+                            .sticky(sticky)
+                            .closed(closed)
+                            .archived(archived);
+                }
+
+                Post post = builder.build();
+                post.deleted.set(deleted);
+                filters.evaluate(post).apply(post);
+                posts.add(post);
+            }
+            filters.flushStats();
+
+            ChanThread thread = new ChanThread(null, posts);
+            for (int i = 0; i < posts.size(); i++) {
+                Post post = posts.get(i);
+                thread.postsByNo.put(post.no, post);
+            }
+            for (int i = 0; i < posts.size(); i++) {
+                Post post = posts.get(i);
+                for (int replyTo : post.repliesTo) {
+                    Post subject = thread.postsByNo.get(replyTo);
+                    if (subject != null) {
+                        subject.repliesFrom.add(post.no);
+                    }
+                }
+            }
+
+            if (!posts.isEmpty() && posts.get(0).isOP) {
+                thread.op = posts.get(0);
+                thread.closed = closed;
+                thread.archived = archived;
+            }
+
+            Time.endTiming("Read snapshot of " + posts.size() + " posts", start);
+
+            return new Snapshot(thread, lastModified, etag);
+        } catch (IOException | RuntimeException e) {
+            Logger.e(TAG, "Error reading snapshot " + file.getName(), e);
+            if (!file.delete()) {
+                Logger.e(TAG, "Could not delete broken snapshot " + file.getName());
+            }
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @WorkerThread
+    private void write(File file, PendingWrite write) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Logger.e(TAG, "Could not create the snapshot directory");
+            return;
+        }
+
+        long start = Time.startTiming();
+        File tmp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(write.settings);
+
+            writeString(out, write.lastModified);
+            writeString(out, write.etag);
+
+            out.writeInt(write.opReplies);
+            out.writeInt(write.opImages);
+            out.writeInt(write.opUniqueIps);
+            out.writeLong(write.opLastModified);
+            out.writeBoolean(write.sticky);
+            out.writeBoolean(write.closed);
+            out.writeBoolean(write.archived);
+
+            out.writeInt(write.posts.size());
+            for (int i = 0; i < write.posts.size(); i++) {
+                writePost(out, write.posts.get(i));
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp.getName());
+            }
+
+            Time.endTiming("Write snapshot of " + write.posts.size() + " posts", start);
+        } catch (IOException e) {
+            Logger.e(TAG, "Error writing snapshot " + file.getName(), e);
+            if (!tmp.delete()) {
+                Logger.e(TAG, "Could not delete " + tmp.getName());
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    // Remove the oldest snapshots above the maximum.
+    @WorkerThread
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_SNAPSHOTS) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length - MAX_SNAPSHOTS; i++) {
+            if (!files[i].delete()) {
+                Logger.e(TAG, "Could not delete snapshot " + files[i].getName());
+            }
+        }
+    }
+
+    private void writePost(DataOutputStream out, Post post) throws IOException {
+        out.writeInt(post.no);
+        out.writeBoolean(post.isOP);
+        out.writeLong(post.time);
+        writeString(out, post.subject);
+        writeString(out, post.name);
+        writeString(out, post.tripcode);
+        writeString(out, post.id);
+        writeString(out, post.capcode);
+        out.writeBoolean(post.deleted.get());
+        // Only stored when anonymized, null reads back as the same as the shown value.
+        writeString(out, TextUtils.equals(post.filterName, post.name) ? null : post.filterName);
+        writeString(out, TextUtils.equals(post.filterTripcode, post.tripcode) ? null : post.filterTripcode);
+        writeString(out, TextUtils.equals(post.filterPosterId, post.id) ? null : post.filterPosterId);
+
+        out.writeInt(post.images.size());
+        for (int i = 0; i < post.images.size(); i++) {
+            PostImage image = post.images.get(i);
+            writeString(out, image.originalName);
+            writeUrl(out, image.thumbnailUrl);
+            writeUrl(out, image.spoilerThumbnailUrl);
+            writeUrl(out, image.imageUrl);
+            writeString(out, image.filename);
+            writeString(out, image.extension);
+            out.writeInt(image.imageWidth);
+            out.writeInt(image.imageHeight);
+            out.writeBoolean(image.spoiler);
+            out.writeLong(image.size);
+        }
+
+        if (post.httpIcons == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(post.httpIcons.size());
+            for (int i = 0; i < post.httpIcons.size(); i++) {
+                PostHttpIcon icon = post.httpIcons.get(i);
+                writeUrl(out, icon.url);
+                writeString(out, icon.name);
+            }
+        }
+
+        out.writeInt(post.repliesTo.size());
+        for (int replyTo : post.repliesTo) {
+            out.writeInt(replyTo);
+        }
+
+        Map<PostLinkable, Integer> linkableIndexes = new IdentityHashMap<>();
+        out.writeInt(post.linkables.size());
+        for (int i = 0; i < post.linkables.size(); i++) {
+            PostLinkable linkable = post.linkables.get(i);
+            linkableIndexes.put(linkable, i);
+            out.writeInt(linkable.type.ordinal());
+            writeString(out, linkable.key.toString());
+            writeValue(out, linkable.value, linkableIndexes);
+        }
+
+        writeStyledText(out, post.styledComment, linkableIndexes);
+        out.writeBoolean(post.styledSubject != null);
+        if (post.styledSubject != null) {
+            writeStyledText(out, post.styledSubject, linkableIndexes);
+        }
+        writeStyledText(out, post.styledNameTripcodeIdCapcode, linkableIndexes);
+    }
+
+    // Returns the deleted state, which is not part of the builder.
+    private boolean readPost(DataInputStream in, Post.Builder builder) throws IOException {
+        builder.id(in.readInt())
+                .op(in.readBoolean())
+                .setUnixTimestampSeconds(in.readLong())
+                .subject(readString(in))
+                .name(readString(in))
+                .tripcode(readString(in))
+                .posterId(readString(in))
+                .moderatorCapcode(readString(in));
+        boolean deleted = in.readBoolean();
+        builder.filterName = readString(in);
+        builder.filterTripcode = readString(in);
+        builder.filterPosterId = readString(in);
+
+        int imageCount = in.readInt();
+        if (imageCount > 0) {
+            List<PostImage> images = new ArrayList<>(imageCount);
+            for (int i = 0; i < imageCount; i++) {
+                images.add(new PostImage.Builder()
+                        .originalName(readString(in))
+                        .thumbnailUrl(readUrl(in))
+                        .spoilerThumbnailUrl(readUrl(in))
+                        .imageUrl(readUrl(in))
+                        .filename(readString(in))
+                        .extension(readString(in))
+                        .imageWidth(in.readInt())
+                        .imageHeight(in.readInt())
+                        .spoiler(in.readBoolean())
+                        .size(in.readLong())
+                        .build());
+            }
+            builder.images(images);
+        }
+
+        int iconCount = in.readInt();
+        for (int i = 0; i < iconCount; i++) {
+            builder.addHttpIcon(new PostHttpIcon(readUrl(in), readString(in)));
+        }
+
+        int replyCount = in.readInt();
+        for (int i = 0; i < replyCount; i++) {
+            builder.addReplyTo(in.readInt());
+        }
+
+        PostLinkable.Type[] types = PostLinkable.Type.values();
+        int linkableCount = in.readInt();
+        List<PostLinkable> linkables = new ArrayList<>(linkableCount);
+        for (int i = 0; i < linkableCount; i++) {
+            PostLinkable.Type type = types[in.readInt()];
+            String key = readString(in);
+            PostLinkable linkable = new PostLinkable(null, key, readValue(in, linkables), type);
+            linkables.add(linkable);
+            builder.addLinkable(linkable);
+        }
+
+        StyledText comment = readStyledText(in, linkables);
+        builder.comment(comment.text);
+        builder.styledComment(comment);
+        StyledText subject = in.readBoolean() ? readStyledText(in, linkables) : null;
+        builder.spans(subject, readStyledText(in, linkables));
+
+        return deleted;
+    }
+
+    private void writeStyledText(DataOutputStream out, StyledText text,
+                                 Map<PostLinkable, Integer> linkableIndexes) throws IOException {
+        writeString(out, text.text);
+        out.writeInt(text.runStyles.length);
+        for (int i = 0; i < text.runStyles.length; i++) {
+            out.writeInt(text.runStarts[i]);
+            out.writeInt(text.runEnds[i]);
+            out.writeInt(text.runStyles[i].ordinal());
+            writeValue(out, text.runValues[i], linkableIndexes);
+        }
+    }
+
+    private StyledText readStyledText(DataInputStream in, List<PostLinkable> linkables) throws IOException {
+        String text = readString(in);
+        StyledText.Style[] styles = StyledText.Style.values();
+        int count = in.readInt();
+        if (count == 0 && text.isEmpty()) {
+            return StyledText.EMPTY;
+        }
+
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        StyledText.Style[] runStyles = new StyledText.Style[count];
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = in.readInt();
+            ends[i] = in.readInt();
+            runStyles[i] = styles[in.readInt()];
+            values[i] = readValue(in, linkables);
+        }
+        return new StyledText(text, starts, ends, runStyles, values);
+    }
+
+    private void writeValue(DataOutputStream out, Object value,
+                            Map<PostLinkable, Integer> linkableIndexes) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.writeByte(VALUE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof CharSequence) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, value.toString());
+        } else if (value instanceof PostLinkable.ThreadLink) {
+            PostLinkable.ThreadLink link = (PostLinkable.ThreadLink) value;
+            out.writeByte(VALUE_THREAD_LINK);
+            writeString(out, link.board);
+            out.writeInt(link.threadId);
+            out.writeInt(link.postId);
+        } else if (value instanceof PostLinkable && linkableIndexes.containsKey(value)) {
+            out.writeByte(VALUE_LINKABLE);
+            out.writeInt(linkableIndexes.get(value));
+        } else {
+            throw new IOException("Cannot write value of " + value.getClass());
+        }
+    }
+
+    private Object readValue(DataInputStream in, List<PostLinkable> linkables) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_INTEGER:
+                return in.readInt();
+            case VALUE_FLOAT:
+                return in.readFloat();
+            case VALUE_BOOLEAN:
+                return in.readBoolean();
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_THREAD_LINK:
+                return new PostLinkable.ThreadLink(readString(in), in.readInt(), in.readInt());
+            case VALUE_LINKABLE:
+                return linkables.get(in.readInt());
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private void writeUrl(DataOutputStream out, HttpUrl url) throws IOException {
+        writeString(out, url == null ? null : url.toString());
+    }
+
+    private HttpUrl readUrl(DataInputStream in) throws IOException {
+        String url = readString(in);
+        return url == null ? null : HttpUrl.parse(url);
+    }
+
+    // Strings are written as utf-8 with their length, writeUTF is limited to 64KB.
+    private void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    public interface LoadCallback {
+        void onSnapshotLoaded(@Nullable Snapshot snapshot);
+    }
+
+    public static class Snapshot {
+        /**
+         * The restored thread, without a loadable.
+         */
+        public final ChanThread thread;
+        public final String lastModified;
+        public final String etag;
+
+        public Snapshot(ChanThread thread, String lastModified, String etag) {
+            this.thread = thread;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+    }
+
+    private static class PendingWrite {
+        private final List<Post> posts;
+        private final int settings;
+        private final String lastModified;
+        private final String etag;
+
+        // The mutable op state, collected on the main thread.
+        private int opReplies = -1;
+        private int opImages = -1;
+        private int opUniqueIps = -1;
+        private long opLastModified = -1L;
+        private boolean sticky;
+        private boolean closed;
+        private boolean archived;
+
+        @MainThread
+        private PendingWrite(List<Post> posts, Post op, int settings, String lastModified, String etag) {
+            this.posts = posts;
+            this.settings = settings;
+            this.lastModified = lastModified;
+            this.etag = etag;
+
+            if (op != null) {
+                opReplies = op.getReplies();
+                opImages = op.getImagesCount();
+                opUniqueIps = op.getUniqueIps();
+                opLastModified = op.getLastModified();
+                sticky = op.isSticky();
+                closed = op.isClosed();
+                archived = op.isArchived();
+            }
+        }
+    }
+}
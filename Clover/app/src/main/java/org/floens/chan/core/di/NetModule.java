@@ -7,33 +7,62 @@ import com.android.volley.toolbox.Volley;
 
 import org.codejargon.feather.Provides;
 import org.floens.chan.core.cache.FileCache;
-import org.floens.chan.core.net.ProxiedHurlStack;
+import org.floens.chan.core.net.OkHttpStack;
+import org.floens.chan.core.net.RateLimiter;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
 
+import okhttp3.OkHttpClient;
+
 public class NetModule {
+    private static final int TIMEOUT = 30000;
     private static final int VOLLEY_CACHE_SIZE = 10 * 1024 * 1024;
     private static final long FILE_CACHE_DISK_SIZE = 50 * 1024 * 1024;
     private static final String FILE_CACHE_NAME = "filecache";
 
     @Provides
     @Singleton
-    public RequestQueue provideRequestQueue(Context applicationContext, UserAgentProvider userAgentProvider) {
+    public RateLimiter provideRateLimiter() {
+        return new RateLimiter();
+    }
+
+    /**
+     * The client all http traffic goes through, either directly or through a client derived with
+     * {@link OkHttpClient#newBuilder()}, so that everything shares one connection pool.
+     */
+    @Provides
+    @Singleton
+    public OkHttpClient provideOkHttpClient(RateLimiter rateLimiter) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(rateLimiter)
+                .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Provides
+    @Singleton
+    public RequestQueue provideRequestQueue(Context applicationContext, UserAgentProvider userAgentProvider,
+                                            OkHttpClient okHttpClient) {
         File cacheDir = getCacheDir(applicationContext);
 
         String userAgent = userAgentProvider.getUserAgent();
         return Volley.newRequestQueue(applicationContext,
                 userAgent,
-                new ProxiedHurlStack(userAgent),
+                new OkHttpStack(okHttpClient, userAgent),
                 new File(cacheDir, Volley.DEFAULT_CACHE_DIR), VOLLEY_CACHE_SIZE);
     }
 
     @Provides
     @Singleton
-    public FileCache provideFileCache(Context applicationContext, UserAgentProvider userAgentProvider) {
-        return new FileCache(new File(getCacheDir(applicationContext), FILE_CACHE_NAME), FILE_CACHE_DISK_SIZE, userAgentProvider.getUserAgent());
+    public FileCache provideFileCache(Context applicationContext, UserAgentProvider userAgentProvider,
+                                      OkHttpClient okHttpClient) {
+        return new FileCache(new File(getCacheDir(applicationContext), FILE_CACHE_NAME), FILE_CACHE_DISK_SIZE,
+                userAgentProvider.getUserAgent(), okHttpClient);
     }
 
     private File getCacheDir(Context applicationContext) {
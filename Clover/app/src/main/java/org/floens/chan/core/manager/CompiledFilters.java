@@ -0,0 +1,602 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import android.text.TextUtils;
+
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.model.orm.Filter;
+import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A list of filters prepared to be matched against many posts.<br>
+ * Matching every filter as its own regex means scanning each field once per filter. Here the word,
+ * wildcard and "quoted sentence" filters are put into a single Aho-Corasick automaton, that finds
+ * all of them in one scan of a field. Filters on the fields that are matched exactly are looked up
+ * in a map. Only /regex/ filters, and the rare word filters the automaton can't express, are
+ * still matched with their own pattern. Their cost is recorded in the {@link FilterStats}, filters
+ * that were too slow are downgraded and skipped.
+ * <p>
+ * The result is the same as matching each filter with
+ * {@link FilterEngine#matches(Filter, boolean, String, boolean)} on the fields of the parsed post.
+ * The comment is matched as shown, the name, tripcode and id as received, before the anonymize
+ * settings replaced them. The matching does not change after construction, can be used from any
+ * thread.
+ * <p>
+ * The posts evaluated with {@link #evaluate(Post)} are counted in the {@link FilterStats}. Matches
+ * are recorded as they happen, the evaluations and the time of the shared scans are added up here
+ * and moved to the stats with {@link #flushStats()}, once per load instead of once per post. The
+ * time of the shared scans is divided evenly over the filters that use them.
+ */
+public class CompiledFilters {
+    private static final String TAG = "CompiledFilters";
+
+    private static final FilterType[] TYPES = FilterType.values();
+    private static final int REGEX_TYPES;
+
+    static {
+        int regexTypes = 0;
+        for (FilterType type : TYPES) {
+            if (type.isRegex) {
+                regexTypes |= type.flag;
+            }
+        }
+        REGEX_TYPES = regexTypes;
+    }
+
+    private static final int START_BOUNDARY = 0x1;
+    private static final int END_BOUNDARY = 0x2;
+
+    private final FilterEngine filterEngine;
+    private final List<Filter> filters;
+
+    // Per filter, the pattern if it is matched on its own, null otherwise.
+    private final Pattern[] patterns;
+    // Per filter, the stats entry.
+    private final FilterStats.Entry[] stats;
+    // The amount of filters that are not matched with their own pattern.
+    private final int sharedCount;
+    // Per exact match field, indexed by FilterType ordinal, the filters by pattern.
+    private final List<Map<String, List<Integer>>> exact = new ArrayList<>();
+    // Flags of the fields that any filter uses.
+    private final int usedTypes;
+
+    private final Automaton automaton;
+
+    // Not yet flushed to the stats.
+    private final AtomicLong pendingEvaluations = new AtomicLong();
+    private final AtomicLong pendingSharedNanos = new AtomicLong();
+
+    public CompiledFilters(FilterEngine filterEngine, List<Filter> filters) {
+        this.filterEngine = filterEngine;
+        this.filters = filters;
+        patterns = new Pattern[filters.size()];
+        stats = new FilterStats.Entry[filters.size()];
+
+        for (int i = 0; i < TYPES.length; i++) {
+            exact.add(TYPES[i].isRegex ? null : new HashMap<String, List<Integer>>());
+        }
+
+        AutomatonBuilder builder = new AutomatonBuilder();
+        int used = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            used |= filter.type;
+            stats[i] = filterEngine.getStats().get(filter);
+
+            if (TextUtils.isEmpty(filter.pattern)) {
+                // Never matches.
+                continue;
+            }
+
+            for (int j = 0; j < TYPES.length; j++) {
+                FilterType type = TYPES[j];
+                if (!type.isRegex && filter.hasFilter(type)) {
+                    Map<String, List<Integer>> byPattern = exact.get(j);
+                    List<Integer> indexes = byPattern.get(filter.pattern);
+                    if (indexes == null) {
+                        indexes = new ArrayList<>(1);
+                        byPattern.put(filter.pattern, indexes);
+                    }
+                    indexes.add(i);
+                }
+            }
+
+            if ((filter.type & REGEX_TYPES) != 0 && !builder.add(filter.pattern, i)) {
+                if (stats[i].isDowngraded()) {
+                    // Too slow, never matches.
+                    continue;
+                }
+
+                patterns[i] = filterEngine.compile(filter.pattern);
+                if (patterns[i] == null) {
+                    Logger.w(TAG, "Invalid pattern " + filter.pattern);
+                }
+            }
+        }
+        usedTypes = used;
+        automaton = builder.build();
+
+        int shared = 0;
+        for (Pattern pattern : patterns) {
+            if (pattern == null) {
+                shared++;
+            }
+        }
+        sharedCount = shared;
+    }
+
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * The filters that match the post.
+     *
+     * @return the indexes in {@link #getFilters()} of the matching filters.
+     */
+    public BitSet match(Post post) {
+        return match(post, false);
+    }
+
+    private BitSet match(Post post, boolean record) {
+        long sharedNanos = 0;
+        BitSet matched = new BitSet(filters.size());
+        // Runs that took longer than SLOW_RUN_NANOS on the wall clock, as index and time pairs.
+        // Checked against the cpu time of the whole post at the end, which is only read here.
+        long[] slowRuns = null;
+        int slowRunCount = 0;
+        long cpuStart = sharedCount < filters.size() ? FilterStats.threadTimeNanos() : 0;
+        for (int i = 0; i < TYPES.length; i++) {
+            FilterType type = TYPES[i];
+            if ((usedTypes & type.flag) == 0) {
+                continue;
+            }
+
+            String text = getText(type, post);
+            if (TextUtils.isEmpty(text)) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            if (type.isRegex) {
+                automaton.match(text, type, filters, matched);
+                sharedNanos += System.nanoTime() - start;
+
+                for (int j = 0; j < patterns.length; j++) {
+                    Pattern pattern = patterns[j];
+                    if (pattern == null || matched.get(j) || !filters.get(j).hasFilter(type) ||
+                            stats[j].isDowngraded()) {
+                        // Downgraded filters can be left after these filters were compiled.
+                        continue;
+                    }
+
+                    long runStart = System.nanoTime();
+                    if (find(pattern, text)) {
+                        matched.set(j);
+                    }
+                    long nanos = System.nanoTime() - runStart;
+                    stats[j].addRegexRun(nanos);
+
+                    if (nanos >= FilterStats.SLOW_RUN_NANOS) {
+                        if (slowRuns == null) {
+                            slowRuns = new long[4];
+                        } else if (slowRunCount * 2 == slowRuns.length) {
+                            slowRuns = Arrays.copyOf(slowRuns, slowRuns.length * 2);
+                        }
+                        slowRuns[slowRunCount * 2] = j;
+                        slowRuns[slowRunCount * 2 + 1] = nanos;
+                        slowRunCount++;
+                    }
+                }
+            } else {
+                List<Integer> indexes = exact.get(i).get(text);
+                if (indexes != null) {
+                    for (int j = 0; j < indexes.size(); j++) {
+                        matched.set(indexes.get(j));
+                    }
+                }
+                sharedNanos += System.nanoTime() - start;
+            }
+        }
+
+        if (slowRunCount > 0) {
+            long cpuNanos = FilterStats.threadTimeNanos() - cpuStart;
+            for (int i = 0; i < slowRunCount; i++) {
+                int index = (int) slowRuns[i * 2];
+                long nanos = Math.min(slowRuns[i * 2 + 1], cpuNanos);
+                if (stats[index].addSlowRun(nanos)) {
+                    filterEngine.onFilterDowngraded(filters.get(index), nanos);
+                }
+            }
+        }
+
+        if (record) {
+            pendingEvaluations.incrementAndGet();
+            pendingSharedNanos.addAndGet(sharedNanos);
+            if (!matched.isEmpty()) {
+                long now = Time.get();
+                for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                    stats[i].addMatch(now);
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * The result of the filters for the post. Applied in the order of the filters, later
+     * filters override earlier ones.
+     */
+    public Result evaluate(Post post) {
+        int highlightedColor = 0;
+        boolean stub = false;
+        boolean remove = false;
+        BitSet matched = match(post, true);
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            Filter filter = filters.get(i);
+            FilterEngine.FilterAction action = FilterEngine.FilterAction.forId(filter.action);
+            switch (action) {
+                case COLOR:
+                    highlightedColor = filter.color;
+                    stub = false;
+                    remove = false;
+                    break;
+                case HIDE:
+                    highlightedColor = 0;
+                    stub = true;
+                    remove = false;
+                    break;
+                case REMOVE:
+                    highlightedColor = 0;
+                    stub = false;
+                    remove = true;
+                    break;
+            }
+        }
+        return new Result(highlightedColor, stub, remove);
+    }
+
+    /**
+     * Add the evaluations and the shared time since the last flush to the stats of the filters.
+     */
+    public void flushStats() {
+        long evaluations = pendingEvaluations.getAndSet(0);
+        long sharedNanos = pendingSharedNanos.getAndSet(0);
+        if (evaluations == 0) {
+            return;
+        }
+
+        long sharedShare = sharedCount == 0 ? 0 : sharedNanos / sharedCount;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i].addEvaluations(evaluations, patterns[i] == null ? sharedShare : 0);
+        }
+    }
+
+    private static boolean find(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        try {
+            return matcher.find();
+        } catch (IllegalArgumentException e) {
+            Logger.w(TAG, "matcher.find() exception", e);
+            return false;
+        }
+    }
+
+    private static String getText(FilterType type, Post post) {
+        switch (type) {
+            case TRIPCODE:
+                return post.filterTripcode;
+            case NAME:
+                return post.filterName;
+            case COMMENT:
+                return post.comment;
+            case ID:
+                return post.filterPosterId;
+            case SUBJECT:
+                return post.subject;
+            case FILENAME:
+                if (post.images.isEmpty()) {
+                    return null;
+                }
+                StringBuilder filename = new StringBuilder();
+                for (PostImage image : post.images) {
+                    filename.append(image.filename).append(" ");
+                }
+                return filename.toString();
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    public static class Result {
+        public final int highlightedColor;
+        public final boolean stub;
+        public final boolean remove;
+
+        public Result(int highlightedColor, boolean stub, boolean remove) {
+            this.highlightedColor = highlightedColor;
+            this.stub = stub;
+            this.remove = remove;
+        }
+
+        /**
+         * @return {@code true} if the post changed. Catalog loaders can share posts, {@code false}
+         * does not mean the post is unchanged for a loader that another loader applied it for.
+         */
+        public boolean apply(Post post) {
+            return post.setFilter(highlightedColor, stub, remove);
+        }
+    }
+
+    // The \b of the patterns, letters, digits and marks are word characters.
+    private static boolean isWordChar(char c) {
+        if (c < 128) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+        int type = Character.getType(c);
+        return Character.isLetterOrDigit(c) || type == Character.NON_SPACING_MARK ||
+                type == Character.ENCLOSING_MARK || type == Character.COMBINING_SPACING_MARK ||
+                type == Character.CONNECTOR_PUNCTUATION;
+    }
+
+    private static boolean isAsciiWordChar(char c) {
+        return c < 128 && isWordChar(c);
+    }
+
+    private static char lowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Collects the literals of the filters, the same as {@link FilterEngine#compile(String)}
+     * would turn into a regex.
+     */
+    private static class AutomatonBuilder {
+        private final List<String> literals = new ArrayList<>();
+        private final List<Integer> literalFilters = new ArrayList<>();
+        private final List<Integer> literalFlags = new ArrayList<>();
+
+        /**
+         * @return {@code false} if the pattern has to be matched as a regex.
+         */
+        private boolean add(String rawPattern, int filterIndex) {
+            if (rawPattern.charAt(0) == '/') {
+                // A /regex/, or a word with a / that is not a word character either.
+                return false;
+            }
+
+            List<String> words = new ArrayList<>();
+            List<Integer> flags = new ArrayList<>();
+            if (rawPattern.length() >= 2 && rawPattern.charAt(0) == '"' &&
+                    rawPattern.charAt(rawPattern.length() - 1) == '"') {
+                // "matches an exact sentence", anywhere in the text.
+                String sentence = rawPattern.substring(1, rawPattern.length() - 1);
+                if (sentence.isEmpty()) {
+                    return false;
+                }
+                for (int i = 0; i < sentence.length(); i++) {
+                    char c = sentence.charAt(i);
+                    if (c < 0x20 || c > 0x7e) {
+                        return false;
+                    }
+                }
+                words.add(sentence);
+                flags.add(0);
+            } else {
+                // Any of the words, bounded by \b. A word ending in * matches the start of a word.
+                String[] split = rawPattern.split(" ");
+                if (split.length == 0) {
+                    // Only spaces, an empty regex.
+                    return false;
+                }
+                for (String word : split) {
+                    int wordFlags = START_BOUNDARY | END_BOUNDARY;
+                    if (word.endsWith("*")) {
+                        word = word.substring(0, word.length() - 1);
+                        wordFlags = START_BOUNDARY;
+                    }
+                    if (word.isEmpty()) {
+                        return false;
+                    }
+                    for (int i = 0; i < word.length(); i++) {
+                        if (!isAsciiWordChar(word.charAt(i))) {
+                            return false;
+                        }
+                    }
+                    words.add(word);
+                    flags.add(wordFlags);
+                }
+            }
+
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.get(i);
+                StringBuilder lower = new StringBuilder(word.length());
+                for (int j = 0; j < word.length(); j++) {
+                    lower.append(lowerAscii(word.charAt(j)));
+                }
+                literals.add(lower.toString());
+                literalFilters.add(filterIndex);
+                literalFlags.add(flags.get(i));
+            }
+            return true;
+        }
+
+        private Automaton build() {
+            // The characters of the literals get a symbol, other characters are symbol 0.
+            int[] symbols = new int[128];
+            int symbolCount = 1;
+            int maxStates = 1;
+            for (int i = 0; i < literals.size(); i++) {
+                String literal = literals.get(i);
+                maxStates += literal.length();
+                for (int j = 0; j < literal.length(); j++) {
+                    char c = literal.charAt(j);
+                    if (symbols[c] == 0) {
+                        symbols[c] = symbolCount++;
+                    }
+                }
+            }
+            // Case insensitive for ascii.
+            for (char c = 'A'; c <= 'Z'; c++) {
+                symbols[c] = symbols[lowerAscii(c)];
+            }
+
+            // The trie, -1 for no edge.
+            int[] next = new int[maxStates * symbolCount];
+            Arrays.fill(next, -1);
+            List<List<Integer>> outputs = new ArrayList<>();
+            outputs.add(new ArrayList<Integer>());
+            int states = 1;
+            for (int i = 0; i < literals.size(); i++) {
+                String literal = literals.get(i);
+                int state = 0;
+                for (int j = 0; j < literal.length(); j++) {
+                    int index = state * symbolCount + symbols[literal.charAt(j)];
+                    if (next[index] < 0) {
+                        next[index] = states++;
+                        outputs.add(new ArrayList<Integer>());
+                    }
+                    state = next[index];
+                }
+                outputs.get(state).add(i);
+            }
+
+            // Breadth first, turn the trie into a dfa following the failure links and collect
+            // the outputs of the shorter literals that end at the same place.
+            int[] fail = new int[states];
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                int child = next[symbol];
+                if (child < 0) {
+                    next[symbol] = 0;
+                } else {
+                    fail[child] = 0;
+                    queue[tail++] = child;
+                }
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                outputs.get(state).addAll(outputs.get(fail[state]));
+                for (int symbol = 0; symbol < symbolCount; symbol++) {
+                    int index = state * symbolCount + symbol;
+                    int child = next[index];
+                    int fallback = next[fail[state] * symbolCount + symbol];
+                    if (child < 0) {
+                        next[index] = fallback;
+                    } else {
+                        fail[child] = fallback;
+                        queue[tail++] = child;
+                    }
+                }
+            }
+
+            int[][] stateOutputs = new int[states][];
+            for (int i = 0; i < states; i++) {
+                List<Integer> output = outputs.get(i);
+                stateOutputs[i] = new int[output.size()];
+                for (int j = 0; j < output.size(); j++) {
+                    stateOutputs[i][j] = output.get(j);
+                }
+            }
+
+            int[] lengths = new int[literals.size()];
+            int[] filterIndexes = new int[literals.size()];
+            int[] flags = new int[literals.size()];
+            for (int i = 0; i < literals.size(); i++) {
+                lengths[i] = literals.get(i).length();
+                filterIndexes[i] = literalFilters.get(i);
+                flags[i] = literalFlags.get(i);
+            }
+
+            return new Automaton(symbols, symbolCount, next, stateOutputs,
+                    lengths, filterIndexes, flags);
+        }
+    }
+
+    private static class Automaton {
+        private final int[] symbols;
+        private final int symbolCount;
+        private final int[] next;
+        private final int[][] outputs;
+
+        // Per literal.
+        private final int[] lengths;
+        private final int[] filterIndexes;
+        private final int[] flags;
+
+        private Automaton(int[] symbols, int symbolCount, int[] next, int[][] outputs,
+                          int[] lengths, int[] filterIndexes, int[] flags) {
+            this.symbols = symbols;
+            this.symbolCount = symbolCount;
+            this.next = next;
+            this.outputs = outputs;
+            this.lengths = lengths;
+            this.filterIndexes = filterIndexes;
+            this.flags = flags;
+        }
+
+        private void match(String text, FilterType type, List<Filter> filters, BitSet matched) {
+            if (lengths.length == 0) {
+                return;
+            }
+
+            int state = 0;
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                state = next[state * symbolCount + (c < 128 ? symbols[c] : 0)];
+
+                int[] output = outputs[state];
+                for (int j = 0; j < output.length; j++) {
+                    int literal = output[j];
+                    int filterIndex = filterIndexes[literal];
+                    if (matched.get(filterIndex) || !filters.get(filterIndex).hasFilter(type)) {
+                        continue;
+                    }
+
+                    int start = i - lengths[literal] + 1;
+                    if ((flags[literal] & START_BOUNDARY) != 0 && start > 0 &&
+                            isWordChar(text.charAt(start - 1))) {
+                        continue;
+                    }
+                    if ((flags[literal] & END_BOUNDARY) != 0 && i + 1 < length &&
+                            isWordChar(text.charAt(i + 1))) {
+                        continue;
+                    }
+
+                    matched.set(filterIndex);
+                }
+            }
+        }
+    }
+}
@@ -27,9 +27,11 @@ import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.model.orm.Board;
 import org.floens.chan.core.model.orm.Filter;
 import org.floens.chan.ui.helper.BoardHelper;
+import org.floens.chan.utils.AndroidUtils;
 import org.floens.chan.utils.Logger;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +42,8 @@ import java.util.regex.PatternSyntaxException;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import de.greenrobot.event.EventBus;
+
 @Singleton
 public class FilterEngine {
     private static final String TAG = "FilterEngine";
@@ -75,6 +79,8 @@ public class FilterEngine {
 
     private final Map<String, Pattern> patternCache = new HashMap<>();
     private final List<Filter> enabledFilters = new ArrayList<>();
+    private volatile FilterSnapshot snapshot;
+    private final FilterStats stats = new FilterStats();
 
     @Inject
     public FilterEngine(DatabaseManager databaseManager, BoardManager boardManager) {
@@ -102,6 +108,41 @@ public class FilterEngine {
         return enabledFilters;
     }
 
+    /**
+     * The enabled filters as of the last change, rebuilt only when the filters change. Use
+     * {@link FilterSnapshot#forBoard(Board)} for the filters of a board, ready to be matched on
+     * other threads, and keep its version to know which changes the result already has.
+     */
+    @AnyThread
+    public FilterSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @AnyThread
+    public FilterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Called by {@link CompiledFilters} when a regex filter was too slow too often.
+     * The snapshot is created again, so that the filters compiled from now on leave it out, and
+     * the change is posted so that the loaded threads drop what the filter hid or highlighted.
+     */
+    @AnyThread
+    void onFilterDowngraded(Filter filter, long nanos) {
+        Logger.w(TAG, "Filter " + filter.pattern + " took " + (nanos / 1_000_000L) +
+                "ms, no longer applying it");
+        AndroidUtils.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                snapshot = new FilterSnapshot(FilterEngine.this, snapshot.version + 1, snapshot.filters);
+                // No longer applied, the same as when it was removed.
+                EventBus.getDefault().post(new FiltersChangedMessage(Collections.singletonList(filter),
+                        Collections.<Filter>emptyList(), snapshot));
+            }
+        });
+    }
+
     @AnyThread
     public boolean matchesBoard(Filter filter, Board board) {
         if (filter.allBoards || TextUtils.isEmpty(filter.boards)) {
@@ -277,5 +318,82 @@ public class FilterEngine {
 
         enabledFilters.clear();
         enabledFilters.addAll(enabled);
+
+        // Copy the filters because they will get used on other threads.
+        List<Filter> copies = new ArrayList<>(enabled.size());
+        Map<Integer, Filter> copiesById = new HashMap<>();
+        for (int i = 0; i < enabled.size(); i++) {
+            Filter copy = enabled.get(i).copy();
+            copies.add(copy);
+            copiesById.put(copy.id, copy);
+        }
+
+        FilterSnapshot old = snapshot;
+        if (old == null) {
+            snapshot = new FilterSnapshot(this, 1, copies);
+            return;
+        }
+
+        // Disabled and deleted filters count as removed.
+        Map<Integer, Filter> oldById = new HashMap<>();
+        for (Filter filter : old.filters) {
+            oldById.put(filter.id, filter);
+        }
+        List<Filter> previous = new ArrayList<>();
+        List<Filter> current = new ArrayList<>();
+        for (Filter copy : copies) {
+            Filter oldFilter = oldById.get(copy.id);
+            if (oldFilter == null || !isSame(oldFilter, copy)) {
+                if (oldFilter != null) {
+                    previous.add(oldFilter);
+                }
+                current.add(copy);
+                // Edited, try again if it was downgraded.
+                stats.reset(copy);
+            }
+        }
+        for (Filter oldFilter : old.filters) {
+            if (!copiesById.containsKey(oldFilter.id)) {
+                previous.add(oldFilter);
+            }
+        }
+
+        snapshot = new FilterSnapshot(this, old.version + 1, copies);
+
+        if (!previous.isEmpty() || !current.isEmpty()) {
+            EventBus.getDefault().post(new FiltersChangedMessage(previous, current, snapshot));
+        }
+    }
+
+    private boolean isSame(Filter a, Filter b) {
+        return a.type == b.type && a.pattern.equals(b.pattern) && a.allBoards == b.allBoards &&
+                a.boards.equals(b.boards) && a.action == b.action && a.color == b.color;
+    }
+
+    /**
+     * Posted when filters are added, changed, enabled, disabled, deleted or downgraded for being
+     * too slow. The loaded threads apply the filters again to the posts these filters match,
+     * without loading them again.
+     */
+    public static class FiltersChangedMessage {
+        /**
+         * The filters as they were before the change, only those that were enabled.
+         */
+        public final List<Filter> previous;
+        /**
+         * The filters as they are now, only those that are enabled.
+         */
+        public final List<Filter> current;
+        /**
+         * All enabled filters after the change.
+         */
+        public final FilterSnapshot snapshot;
+
+        public FiltersChangedMessage(List<Filter> previous, List<Filter> current,
+                                     FilterSnapshot snapshot) {
+            this.previous = previous;
+            this.current = current;
+            this.snapshot = snapshot;
+        }
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import android.support.annotation.AnyThread;
+import android.text.TextUtils;
+
+import org.floens.chan.core.model.orm.Board;
+import org.floens.chan.core.model.orm.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The enabled filters at one point in time, with their boards parsed once.<br>
+ * Created by {@link FilterEngine} whenever the filters change, and never changed after. The
+ * {@link CompiledFilters} of a board are created on first use and shared by all loads of that
+ * board until the next change, so workers get them without walking or copying the filters.
+ */
+public class FilterSnapshot {
+    /**
+     * Incremented for every new snapshot. Loaders keep the version their posts were filtered with,
+     * and skip the {@link FilterEngine.FiltersChangedMessage}s up to it.
+     */
+    public final int version;
+
+    /**
+     * Copies of the enabled filters, in their order of application.
+     */
+    public final List<Filter> filters;
+
+    // Per filter, the board keys it applies to, or null for all boards.
+    private final List<Set<String>> filterBoards;
+
+    private final FilterEngine filterEngine;
+    private final Map<String, CompiledFilters> compiledByBoard = new HashMap<>();
+
+    FilterSnapshot(FilterEngine filterEngine, int version, List<Filter> filters) {
+        this.filterEngine = filterEngine;
+        this.version = version;
+        this.filters = Collections.unmodifiableList(filters);
+
+        filterBoards = new ArrayList<>(filters.size());
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            boolean allBoards = filter.allBoards || TextUtils.isEmpty(filter.boards);
+            filterBoards.add(allBoards ? null : parseBoards(filter.boards));
+        }
+    }
+
+    /**
+     * The filters that apply to the board, compiled.
+     */
+    @AnyThread
+    public CompiledFilters forBoard(Board board) {
+        String key = boardKey(board.site.id(), board.code);
+        synchronized (compiledByBoard) {
+            CompiledFilters compiled = compiledByBoard.get(key);
+            if (compiled == null) {
+                compiled = new CompiledFilters(filterEngine, filtersForBoard(key));
+                compiledByBoard.put(key, compiled);
+            }
+            return compiled;
+        }
+    }
+
+    private List<Filter> filtersForBoard(String key) {
+        List<Filter> result = new ArrayList<>();
+        for (int i = 0; i < filters.size(); i++) {
+            Set<String> boards = filterBoards.get(i);
+            if (boards == null || boards.contains(key)) {
+                result.add(filters.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The keys of the unique ids in the boards field, the same boards that
+     * {@link org.floens.chan.ui.helper.BoardHelper#matchesUniqueId(Board, String)} matches.
+     */
+    private static Set<String> parseBoards(String boards) {
+        Set<String> keys = new HashSet<>();
+        for (String uniqueId : boards.split(",")) {
+            int colon = uniqueId.indexOf(':');
+            if (colon < 0) {
+                // Without a site, only the first site.
+                keys.add(boardKey(0, uniqueId));
+            } else if (uniqueId.indexOf(':', colon + 1) < 0) {
+                try {
+                    int siteId = Integer.parseInt(uniqueId.substring(0, colon));
+                    keys.add(boardKey(siteId, uniqueId.substring(colon + 1)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static String boardKey(int siteId, String code) {
+        return siteId + ":" + code;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import android.os.Debug;
+import android.support.annotation.AnyThread;
+
+import org.floens.chan.core.model.orm.Filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The matches and the cost of the filters, by filter id, collected by {@link CompiledFilters} on
+ * the parse threads since the app started. Shown on the filters screen, to find filters that never
+ * match or that cost a lot.<br>
+ * The regex of a filter can't be stopped once it runs: on Android the matching is done by ICU on
+ * a copy of the text, so neither a deadline checked in {@link CharSequence#charAt(int)} nor a step
+ * budget can interrupt a pattern that backtracks forever. Instead every run is timed, and regex
+ * filters that are slow {@link #MAX_SLOW_RUNS} times within {@link #RUN_WINDOW} runs, or that
+ * stall a parse thread once, are downgraded: they are no longer run, and the filters screen shows
+ * them as too slow. Editing the filter resets its entry.<br>
+ * The runs are timed with the wall clock, which is cheap to read. The cpu time of the parse thread
+ * is read once per post, see {@link #threadTimeNanos()}, and a run only counts as slow when the
+ * post also took that much cpu time. A garbage collection or the thread being descheduled during a
+ * run does not count against the filter.
+ */
+public class FilterStats {
+    // A single run that takes longer than this is slow.
+    public static final long SLOW_RUN_NANOS = 20 * 1_000_000L;
+    public static final int MAX_SLOW_RUNS = 3;
+    // The slow runs are counted over this many runs, a few slow runs spread out are tolerated.
+    public static final int RUN_WINDOW = 100;
+    // A single run that takes longer than this downgrades the filter right away.
+    public static final long STALL_NANOS = 500 * 1_000_000L;
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+
+    @AnyThread
+    public Entry get(Filter filter) {
+        synchronized (entries) {
+            Entry entry = entries.get(filter.id);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(filter.id, entry);
+            }
+            return entry;
+        }
+    }
+
+    @AnyThread
+    public void reset(Filter filter) {
+        synchronized (entries) {
+            entries.remove(filter.id);
+        }
+    }
+
+    /**
+     * The cpu time of the calling thread in nanoseconds, for checking slow filter runs. This is a
+     * system call, read it once per post and not per run. Falls back to the wall clock when the
+     * thread time is not available.
+     */
+    @AnyThread
+    public static long threadTimeNanos() {
+        long nanos = Debug.threadCpuTimeNanos();
+        return nanos >= 0 ? nanos : System.nanoTime();
+    }
+
+    public static class Entry {
+        private final AtomicLong evaluations = new AtomicLong();
+        private final AtomicLong matches = new AtomicLong();
+        private volatile long lastMatchTime;
+        private final AtomicLong sharedNanos = new AtomicLong();
+        private final AtomicLong regexNanos = new AtomicLong();
+        private final AtomicLong regexRuns = new AtomicLong();
+        private final AtomicInteger slowRuns = new AtomicInteger();
+        // The slow runs since the start of the current window of RUN_WINDOW runs.
+        private final AtomicInteger windowSlowRuns = new AtomicInteger();
+        private final AtomicBoolean downgraded = new AtomicBoolean();
+
+        private Entry() {
+        }
+
+        /**
+         * Add evaluated posts, with the time of the shared scans attributed to this filter.
+         */
+        public void addEvaluations(long count, long nanos) {
+            evaluations.addAndGet(count);
+            sharedNanos.addAndGet(nanos);
+        }
+
+        public void addMatch(long time) {
+            matches.incrementAndGet();
+            lastMatchTime = time;
+        }
+
+        /**
+         * Record a run of the regex of the filter, timed with the wall clock.
+         */
+        public void addRegexRun(long nanos) {
+            regexNanos.addAndGet(nanos);
+            if (regexRuns.incrementAndGet() % RUN_WINDOW == 0) {
+                windowSlowRuns.set(0);
+            }
+        }
+
+        /**
+         * Record a run of the regex of the filter that was slow, after checking it against the cpu
+         * time of the thread.
+         *
+         * @param nanos the time of the run, at most the cpu time of the thread during the run.
+         * @return {@code true} if this run downgraded the filter.
+         */
+        public boolean addSlowRun(long nanos) {
+            if (nanos < SLOW_RUN_NANOS) {
+                return false;
+            }
+            slowRuns.incrementAndGet();
+            boolean downgrade = windowSlowRuns.incrementAndGet() >= MAX_SLOW_RUNS || nanos >= STALL_NANOS;
+            return downgrade && downgraded.compareAndSet(false, true);
+        }
+
+        public boolean isDowngraded() {
+            return downgraded.get();
+        }
+
+        public long getEvaluations() {
+            return evaluations.get();
+        }
+
+        public long getMatches() {
+            return matches.get();
+        }
+
+        /**
+         * The time of the last match, 0 if it never matched.
+         */
+        public long getLastMatchTime() {
+            return lastMatchTime;
+        }
+
+        /**
+         * The time spent on this filter, its own regex runs and its share of the shared scans.
+         */
+        public long getNanos() {
+            return sharedNanos.get() + regexNanos.get();
+        }
+
+        public long getRegexNanos() {
+            return regexNanos.get();
+        }
+
+        public long getRegexRuns() {
+            return regexRuns.get();
+        }
+
+        /**
+         * All slow runs, also the ones in earlier windows.
+         */
+        public int getSlowRuns() {
+            return slowRuns.get();
+        }
+    }
+}
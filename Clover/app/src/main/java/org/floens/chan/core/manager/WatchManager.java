@@ -27,6 +27,8 @@ import android.os.Message;
 import android.os.PowerManager;
 import android.support.annotation.Nullable;
 
+import com.android.volley.RequestQueue;
+
 import org.floens.chan.Chan;
 import org.floens.chan.core.database.DatabaseManager;
 import org.floens.chan.core.database.DatabasePinManager;
@@ -34,20 +36,26 @@ import org.floens.chan.core.exception.ChanLoaderException;
 import org.floens.chan.core.model.ChanThread;
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostImage;
+import org.floens.chan.core.model.orm.Board;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.model.orm.Pin;
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.pool.ChanLoaderFactory;
 import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.core.site.Site;
 import org.floens.chan.core.site.loader.ChanThreadLoader;
+import org.floens.chan.core.site.loader.ThreadsIndexRequest;
 import org.floens.chan.ui.helper.PostHelper;
 import org.floens.chan.ui.service.WatchNotifier;
 import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -68,11 +76,15 @@ import static org.floens.chan.utils.AndroidUtils.getAppContext;
  * <p/>
  * <p>The pin watcher is an optional feature that watches threads for new posts and displays a new
  * post counter next to the pin view. Watching happens with the same backoff timer as used for
- * the auto updater for open threads.
+ * the auto updater for open threads. When multiple watched threads are on the same board, and the
+ * site has a threads index, the index of the board is requested once and only the threads that
+ * changed according to the index are loaded.
  * <p/>
  * <p>Background watching is a feature that can be enabled. With background watching enabled then
  * the PinManager will register an AlarmManager to check for updates in intervals. It will acquire
- * a wakelock shortly while checking for updates.
+ * a wakelock shortly while checking for updates. The pins are checked a few at a time, those with
+ * unread quotes and the most active threads first, within a time budget. Pins that were not
+ * checked when the budget ran out, or when the process was killed, go first the next time.
  * <p/>
  * <p>All pin adding and removing must go through this class to properly update the watchers.
  */
@@ -101,11 +113,21 @@ public class WatchManager {
 
     private static final long FOREGROUND_INTERVAL = 15 * 1000;
     private static final int MESSAGE_UPDATE = 1;
+    private static final int MESSAGE_PINS_CHANGED = 2;
+    // Pin changes within this time are sent as one PinChangedMessage, with one updateState.
+    private static final long PINS_CHANGED_DELAY = 100;
     private static final int REQUEST_CODE_WATCH_UPDATE = 2;
     private static final String WATCHER_UPDATE_ACTION = "org.floens.chan.intent.action.WATCHER_UPDATE";
     private static final String WAKELOCK_TAG = "WatchManagerUpdateLock";
     private static final long WAKELOCK_MAX_TIME = 60 * 1000;
     private static final long BACKGROUND_UPDATE_MIN_DELAY = 90 * 1000;
+    // Below this many pins on a board loading the threads themselves is cheaper than the index.
+    private static final int THREADS_INDEX_MIN_PINS = 2;
+    // Requests running at the same time during a background update.
+    private static final int BACKGROUND_CONCURRENCY = 3;
+    // The background update ends after this time even with requests still running, to release the
+    // wakelock before WAKELOCK_MAX_TIME. The pins that are left are loaded first the next time.
+    private static final long BACKGROUND_TIME_BUDGET = 40 * 1000;
 
     private static final Comparator<Pin> SORT_PINS = new Comparator<Pin>() {
         @Override
@@ -116,6 +138,9 @@ public class WatchManager {
 
     ChanLoaderFactory chanLoaderFactory;
 
+    private final RequestQueue volleyRequestQueue;
+    private final RateLimiter rateLimiter;
+
     private final AlarmManager alarmManager;
     private final PowerManager powerManager;
 
@@ -129,17 +154,25 @@ public class WatchManager {
 
     private Map<Pin, PinWatcher> pinWatchers = new HashMap<>();
 
-    private Set<PinWatcher> waitingForPinWatchersForBackgroundUpdate;
+    // Pins changed since the last PinChangedMessage, and if the state needs an update.
+    private final Set<Pin> changedPins = new LinkedHashSet<>();
+    private boolean changedState;
+
+    private BackgroundUpdate backgroundUpdate;
+    private BackgroundUpdateStats lastBackgroundUpdateStats;
     private PowerManager.WakeLock wakeLock;
     private long lastBackgroundUpdateTime;
 
     @Inject
-    public WatchManager(DatabaseManager databaseManager, ChanLoaderFactory chanLoaderFactory) {
+    public WatchManager(DatabaseManager databaseManager, ChanLoaderFactory chanLoaderFactory,
+                        RequestQueue volleyRequestQueue, RateLimiter rateLimiter) {
         alarmManager = (AlarmManager) getAppContext().getSystemService(Context.ALARM_SERVICE);
         powerManager = (PowerManager) getAppContext().getSystemService(Context.POWER_SERVICE);
 
         this.databaseManager = databaseManager;
         this.chanLoaderFactory = chanLoaderFactory;
+        this.volleyRequestQueue = volleyRequestQueue;
+        this.rateLimiter = rateLimiter;
 
         databasePinManager = databaseManager.getDatabasePinManager();
         pins = databaseManager.runTask(databasePinManager.getPins());
@@ -151,6 +184,9 @@ public class WatchManager {
                 if (msg.what == MESSAGE_UPDATE) {
                     update(false);
                     return true;
+                } else if (msg.what == MESSAGE_PINS_CHANGED) {
+                    dispatchPinChanges();
+                    return true;
                 } else {
                     return false;
                 }
@@ -220,6 +256,7 @@ public class WatchManager {
         updatePinsInDatabase();
 
         updateState();
+        changedPins.remove(pin);
 
         EventBus.getDefault().post(new PinRemovedMessage(pin));
     }
@@ -227,9 +264,7 @@ public class WatchManager {
     public void updatePin(Pin pin) {
         databaseManager.runTask(databasePinManager.updatePin(pin));
 
-        updateState();
-
-        EventBus.getDefault().post(new PinChangedMessage(pin));
+        postPinChanged(pin, true);
     }
 
     public Pin findPinByLoadable(Loadable other) {
@@ -285,8 +320,7 @@ public class WatchManager {
     public void toggleWatch(Pin pin) {
         pin.watching = !pin.watching;
 
-        updateState();
-        EventBus.getDefault().post(new PinChangedMessage(pin));
+        postPinChanged(pin, true);
     }
 
     public void onBottomPostViewed(Pin pin) {
@@ -342,13 +376,11 @@ public class WatchManager {
             pin.watching = false;
         }
 
-        updateState();
         updatePinsInDatabase();
 
         List<Pin> allPins = getAllPins();
         for (int i = 0; i < allPins.size(); i++) {
-            Pin pin = allPins.get(i);
-            EventBus.getDefault().post(new PinChangedMessage(pin));
+            postPinChanged(allPins.get(i), true);
         }
     }
 
@@ -401,13 +433,19 @@ public class WatchManager {
         return pinWatchers.get(pin);
     }
 
+    /**
+     * Statistics of the last finished background update, or {@code null} if there was none yet.
+     */
+    public BackgroundUpdateStats getLastBackgroundUpdateStats() {
+        return lastBackgroundUpdateStats;
+    }
+
     // Called when the user changes the watch enabled preference
     private void onWatchEnabledChanged(boolean watchEnabled) {
         updateState(watchEnabled, isBackgroundWatchingSettingEnabled());
         List<Pin> pins = getAllPins();
         for (int i = 0; i < pins.size(); i++) {
-            Pin pin = pins.get(i);
-            EventBus.getDefault().post(new PinChangedMessage(pin));
+            postPinChanged(pins.get(i), false);
         }
     }
 
@@ -416,8 +454,7 @@ public class WatchManager {
         updateState(isTimerEnabled(), backgroundEnabled);
         List<Pin> pins = getAllPins();
         for (int i = 0; i < pins.size(); i++) {
-            Pin pin = pins.get(i);
-            EventBus.getDefault().post(new PinChangedMessage(pin));
+            postPinChanged(pins.get(i), false);
         }
     }
 
@@ -579,47 +616,170 @@ public class WatchManager {
                 break;
         }
 
-        // A set of watchers that all have to complete being updated
-        // before the wakelock is released again
-        waitingForPinWatchersForBackgroundUpdate = null;
+        List<List<PinWatcher>> jobs = getUpdateJobs(fromBackground);
         if (fromBackground) {
-            waitingForPinWatchersForBackgroundUpdate = new HashSet<>();
+            if (backgroundUpdate != null) {
+                Logger.w(TAG, "Previous background update did not finish");
+                backgroundUpdate.finish();
+            }
+            backgroundUpdate = new BackgroundUpdate();
+            backgroundUpdate.start(jobs);
+        } else {
+            for (int i = 0; i < jobs.size(); i++) {
+                startUpdateJob(jobs.get(i), false);
+            }
         }
+    }
+
+    // The pins that are due for an update as jobs. A job is a single pin to load, or a group of
+    // pins on the same board that are checked with one threads index request.
+    private List<List<PinWatcher>> getUpdateJobs(boolean fromBackground) {
+        List<List<PinWatcher>> jobs = new ArrayList<>();
+        Map<String, List<PinWatcher>> byBoard = new HashMap<>();
 
         List<Pin> watchingPins = getWatchingPins();
         for (int i = 0; i < watchingPins.size(); i++) {
             Pin pin = watchingPins.get(i);
             PinWatcher pinWatcher = getPinWatcher(pin);
-            if (pinWatcher != null && pinWatcher.update(fromBackground)) {
-                EventBus.getDefault().post(new PinChangedMessage(pin));
+            if (pinWatcher == null || !pinWatcher.isDue(fromBackground)) {
+                continue;
+            }
 
-                if (fromBackground) {
-                    waitingForPinWatchersForBackgroundUpdate.add(pinWatcher);
+            Loadable loadable = pin.loadable;
+            if (loadable.board != null && loadable.site.endpoints().threadsIndex(loadable.board) != null) {
+                String key = loadable.site.id() + "/" + loadable.boardCode;
+                List<PinWatcher> group = byBoard.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    byBoard.put(key, group);
                 }
+                group.add(pinWatcher);
+            } else {
+                jobs.add(Collections.singletonList(pinWatcher));
             }
         }
 
-        if (fromBackground && !waitingForPinWatchersForBackgroundUpdate.isEmpty()) {
-            Logger.i(TAG, "Acquiring wakelock for pin watcher updates");
-            manageLock(true);
+        for (List<PinWatcher> group : byBoard.values()) {
+            if (group.size() < THREADS_INDEX_MIN_PINS) {
+                for (int i = 0; i < group.size(); i++) {
+                    jobs.add(Collections.singletonList(group.get(i)));
+                }
+            } else {
+                jobs.add(group);
+            }
         }
+
+        return jobs;
     }
 
-    private void pinWatcherUpdated(PinWatcher pinWatcher) {
-        updateState();
-        EventBus.getDefault().post(new PinChangedMessage(pinWatcher.pin));
+    // Start a job from getUpdateJobs, returns what to wait for or null if nothing was started.
+    private Object startUpdateJob(List<PinWatcher> job, boolean fromBackground) {
+        if (job.size() >= THREADS_INDEX_MIN_PINS) {
+            return requestThreadsIndex(job, fromBackground);
+        } else {
+            PinWatcher pinWatcher = job.get(0);
+            if (pinWatchers.get(pinWatcher.pin) == pinWatcher && pinWatcher.update(fromBackground)) {
+                postPinChanged(pinWatcher.pin, false);
+                return pinWatcher;
+            } else {
+                return null;
+            }
+        }
+    }
 
-        if (waitingForPinWatchersForBackgroundUpdate != null) {
-            waitingForPinWatchersForBackgroundUpdate.remove(pinWatcher);
+    // Request the threads index of the board of the pins in the group, and only load the
+    // threads of which the last modified time changed.
+    private Object requestThreadsIndex(final List<PinWatcher> group, final boolean fromBackground) {
+        Loadable loadable = group.get(0).pin.loadable;
+        Site site = loadable.site;
+        Board board = loadable.board;
+
+        final Object token = new Object();
+        rateLimiter.add(volleyRequestQueue, new ThreadsIndexRequest(site, board, index -> {
+            List<PinWatcher> changed = new ArrayList<>();
+            for (int i = 0; i < group.size(); i++) {
+                PinWatcher pinWatcher = group.get(i);
+                // Removed or stopped watching while the index was loading
+                if (pinWatchers.get(pinWatcher.pin) != pinWatcher || !pinWatcher.pin.watching) {
+                    continue;
+                }
 
-            if (waitingForPinWatchersForBackgroundUpdate.isEmpty()) {
-                Logger.i(TAG, "All watchers updated, removing wakelock");
-                waitingForPinWatchersForBackgroundUpdate = null;
-                manageLock(false);
+                Long lastModified = index.get(pinWatcher.pin.loadable.no);
+                // Not in the index means archived or deleted, the load will tell. Without a last
+                // modified time in the index there is nothing to compare, always load.
+                if (lastModified == null || lastModified < 0 ||
+                        lastModified != pinWatcher.indexLastModified || !pinWatcher.markUnchanged()) {
+                    pinWatcher.indexLastModified = lastModified == null ? -1 : lastModified;
+                    changed.add(pinWatcher);
+                }
             }
+            Logger.d(TAG, "Threads index of /" + board.code + "/: " + (group.size() - changed.size()) +
+                    " of " + group.size() + " pins unchanged");
+
+            loadPinWatchers(changed, fromBackground);
+            backgroundUpdateDone(token);
+        }, error -> {
+            Logger.e(TAG, "Threads index of /" + board.code + "/ failed, loading the threads", error);
+
+            loadPinWatchers(group, fromBackground);
+            backgroundUpdateDone(token);
+        }));
+
+        return token;
+    }
+
+    private void loadPinWatchers(List<PinWatcher> toLoad, boolean fromBackground) {
+        if (fromBackground && backgroundUpdate != null) {
+            // Next in line of the background update, they are already sorted
+            backgroundUpdate.enqueueFirst(toLoad);
+        } else {
+            for (int i = 0; i < toLoad.size(); i++) {
+                startUpdateJob(Collections.singletonList(toLoad.get(i)), fromBackground);
+            }
+        }
+    }
+
+    private void pinWatcherUpdated(PinWatcher pinWatcher) {
+        postPinChanged(pinWatcher.pin, true);
+
+        backgroundUpdateDone(pinWatcher);
+    }
+
+    /**
+     * Send a {@link PinChangedMessage} for the pin soon. An update changes many pins in a short
+     * time, the changes are collected for {@link #PINS_CHANGED_DELAY} so that the drawer and the
+     * notification are only updated once.
+     *
+     * @param updateState if the watch state and the notification need to be updated too.
+     */
+    private void postPinChanged(Pin pin, boolean updateState) {
+        changedPins.add(pin);
+        changedState |= updateState;
+        if (!handler.hasMessages(MESSAGE_PINS_CHANGED)) {
+            handler.sendEmptyMessageDelayed(MESSAGE_PINS_CHANGED, PINS_CHANGED_DELAY);
         }
     }
 
+    private void dispatchPinChanges() {
+        handler.removeMessages(MESSAGE_PINS_CHANGED);
+
+        if (changedState) {
+            changedState = false;
+            updateState();
+        }
+
+        if (!changedPins.isEmpty()) {
+            List<Pin> changed = new ArrayList<>(changedPins);
+            changedPins.clear();
+            EventBus.getDefault().post(new PinChangedMessage(changed));
+        }
+    }
+
+    private void backgroundUpdateDone(Object waitingFor) {
+        if (backgroundUpdate != null) {
+            backgroundUpdate.done(waitingFor);
+        }
+    }
     private void manageLock(boolean lock) {
         if (lock) {
             if (wakeLock != null) {
@@ -644,6 +804,215 @@ public class WatchManager {
         }
     }
 
+    private class BackgroundUpdate {
+        private final long startTime = Time.get();
+        private final List<List<PinWatcher>> queue = new ArrayList<>();
+        // What is waited for mapped to the pins of its job, a pin watcher or a threads index.
+        private final Map<Object, List<PinWatcher>> running = new HashMap<>();
+        private final Runnable budgetRunnable = new Runnable() {
+            @Override
+            public void run() {
+                Logger.w(TAG, "Background update over budget with " + running.size() + " jobs running");
+                finish();
+            }
+        };
+
+        private long firstRequestTime = -1;
+        private long lastResponseTime = -1;
+        private int requests;
+        private boolean locked;
+        private boolean finished;
+
+        private void start(List<List<PinWatcher>> jobs) {
+            // The order is computed once, the time until a pin is due changes during the sort.
+            Set<Integer> resume = loadPending();
+            List<JobOrder> ordered = new ArrayList<>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                ordered.add(new JobOrder(jobs.get(i), resume));
+            }
+            Collections.sort(ordered);
+            for (int i = 0; i < ordered.size(); i++) {
+                queue.add(ordered.get(i).job);
+            }
+
+            if (!queue.isEmpty()) {
+                Logger.i(TAG, "Acquiring wakelock for pin watcher updates");
+                manageLock(true);
+                locked = true;
+                // Responses can take longer than the budget, don't wait for them.
+                handler.postDelayed(budgetRunnable, BACKGROUND_TIME_BUDGET);
+            }
+
+            pump();
+        }
+
+        private void enqueueFirst(List<PinWatcher> toLoad) {
+            for (int i = toLoad.size() - 1; i >= 0; i--) {
+                queue.add(0, Collections.singletonList(toLoad.get(i)));
+            }
+        }
+
+        private void done(Object waitingFor) {
+            if (running.remove(waitingFor) != null) {
+                lastResponseTime = Time.get();
+                pump();
+            }
+        }
+
+        private void pump() {
+            if (finished) {
+                return;
+            }
+
+            boolean overBudget = Time.get() - startTime > BACKGROUND_TIME_BUDGET;
+            while (!overBudget && running.size() < BACKGROUND_CONCURRENCY && !queue.isEmpty()) {
+                List<PinWatcher> job = queue.remove(0);
+                Object started = startUpdateJob(job, true);
+                if (started != null) {
+                    running.put(started, job);
+                    requests++;
+                    if (firstRequestTime < 0) {
+                        firstRequestTime = Time.get();
+                    }
+                }
+            }
+
+            savePending();
+
+            if (running.isEmpty() && (queue.isEmpty() || overBudget)) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            handler.removeCallbacks(budgetRunnable);
+
+            if (backgroundUpdate == this) {
+                backgroundUpdate = null;
+            }
+
+            savePending();
+
+            long now = Time.get();
+            long networkTime = firstRequestTime < 0 ? 0 :
+                    Math.max(lastResponseTime, firstRequestTime) - firstRequestTime;
+            lastBackgroundUpdateStats = new BackgroundUpdateStats(now, locked ? now - startTime : 0,
+                    networkTime, requests, getPendingPins().size());
+            Logger.i(TAG, "Background update finished: " + lastBackgroundUpdateStats);
+
+            // Update the notification before the device can go back to sleep.
+            dispatchPinChanges();
+
+            if (locked) {
+                Logger.i(TAG, "All watchers updated, removing wakelock");
+                manageLock(false);
+            }
+        }
+
+        // Pins waiting in the queue or still loading, persisted so an interrupted update resumes.
+        private Set<Pin> getPendingPins() {
+            Set<Pin> pending = new HashSet<>();
+            for (int i = 0; i < queue.size(); i++) {
+                for (PinWatcher pinWatcher : queue.get(i)) {
+                    pending.add(pinWatcher.pin);
+                }
+            }
+            for (List<PinWatcher> job : running.values()) {
+                for (PinWatcher pinWatcher : job) {
+                    pending.add(pinWatcher.pin);
+                }
+            }
+            return pending;
+        }
+
+        private void savePending() {
+            StringBuilder ids = new StringBuilder();
+            for (Pin pin : getPendingPins()) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(pin.id);
+            }
+            ChanSettings.watchBackgroundPending.set(ids.toString());
+        }
+
+        private Set<Integer> loadPending() {
+            Set<Integer> ids = new HashSet<>();
+            for (String id : ChanSettings.watchBackgroundPending.get().split(",")) {
+                try {
+                    ids.add(Integer.parseInt(id));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            return ids;
+        }
+    }
+
+    // The order of a job in a background update: pins left over from the previous update first,
+    // then pins with unread quotes, then the most active threads, which are the most overdue
+    // according to their refresh predictor.
+    private static class JobOrder implements Comparable<JobOrder> {
+        private final List<PinWatcher> job;
+        private final boolean resume;
+        private final boolean quotes;
+        private final long due;
+
+        private JobOrder(List<PinWatcher> job, Set<Integer> resumeIds) {
+            this.job = job;
+            boolean resume = false;
+            boolean quotes = false;
+            long due = Long.MAX_VALUE;
+            for (PinWatcher pinWatcher : job) {
+                resume |= resumeIds.contains(pinWatcher.pin.id);
+                quotes |= pinWatcher.pin.getNewQuoteCount() > 0;
+                due = Math.min(due, pinWatcher.getTimeUntilLoadMore());
+            }
+            this.resume = resume;
+            this.quotes = quotes;
+            this.due = due;
+        }
+
+        @Override
+        public int compareTo(JobOrder other) {
+            if (resume != other.resume) {
+                return resume ? -1 : 1;
+            }
+            if (quotes != other.quotes) {
+                return quotes ? -1 : 1;
+            }
+            return due < other.due ? -1 : (due == other.due ? 0 : 1);
+        }
+    }
+
+    public static class BackgroundUpdateStats {
+        public final long time;
+        public final long wakelockTime;
+        /**
+         * Time from the first request until the last response, the time the radio was kept busy.
+         */
+        public final long networkTime;
+        public final int requests;
+        public final int pinsLeft;
+
+        public BackgroundUpdateStats(long time, long wakelockTime, long networkTime, int requests, int pinsLeft) {
+            this.time = time;
+            this.wakelockTime = wakelockTime;
+            this.networkTime = networkTime;
+            this.requests = requests;
+            this.pinsLeft = pinsLeft;
+        }
+
+        @Override
+        public String toString() {
+            return requests + " requests, wakelock " + wakelockTime + "ms, network " +
+                    networkTime + "ms, " + pinsLeft + " pins left";
+        }
+    }
+
     public static class PinAddedMessage {
         public Pin pin;
 
@@ -660,15 +1029,18 @@ public class WatchManager {
         }
     }
 
+    /**
+     * The pins that changed since the last message, each pin is in it once.
+     */
     public static class PinChangedMessage {
-        public Pin pin;
+        public List<Pin> pins;
 
-        public PinChangedMessage(Pin pin) {
-            this.pin = pin;
+        public PinChangedMessage(List<Pin> pins) {
+            this.pins = pins;
         }
     }
 
-    public class PinWatcher implements ChanThreadLoader.ChanLoaderCallback {
+    public class PinWatcher implements ChanThreadLoader.BackgroundChanLoaderCallback {
         private static final String TAG = "PinWatcher";
 
         private final Pin pin;
@@ -676,9 +1048,17 @@ public class WatchManager {
 
         private final List<Post> posts = new ArrayList<>();
         private final List<Post> quotes = new ArrayList<>();
+        // Numbers of the saved replies in the thread, to find the quotes in new posts.
+        private final Set<Integer> savedReplyNos = new HashSet<>();
+        // The thread and revision the posts and quotes were last updated with.
+        private ChanThread lastThread;
+        private int lastRevision;
         private boolean wereNewQuotes = false;
         private boolean wereNewPosts = false;
 
+        // Last modified time of the thread in the threads index when it was last loaded, -1 if unknown.
+        private long indexLastModified = -1;
+
         public PinWatcher(Pin pin) {
             this.pin = pin;
             inject(this);
@@ -717,6 +1097,24 @@ public class WatchManager {
             }
         }
 
+        private void addPosts(List<Post> newPosts) {
+            for (int i = 0; i < newPosts.size(); i++) {
+                Post post = newPosts.get(i);
+                posts.add(post);
+
+                if (post.isSavedReply) {
+                    savedReplyNos.add(post.no);
+                }
+
+                for (int no : post.repliesTo) {
+                    if (savedReplyNos.contains(no)) {
+                        quotes.add(post);
+                        break;
+                    }
+                }
+            }
+        }
+
         private void destroy() {
             if (chanLoader != null) {
                 Logger.d(TAG, "PinWatcher: destroyed for " + pin);
@@ -730,11 +1128,24 @@ public class WatchManager {
             wereNewQuotes = false;
         }
 
+        private boolean isDue(boolean fromBackground) {
+            return !pin.isError && pin.watching && !chanLoader.isLoading() &&
+                    (fromBackground || chanLoader.getTimeUntilLoadMore() < 0L);
+        }
+
+        private long getTimeUntilLoadMore() {
+            return chanLoader == null ? Long.MAX_VALUE : chanLoader.getTimeUntilLoadMore();
+        }
+
+        private boolean markUnchanged() {
+            return chanLoader != null && chanLoader.markUnchanged();
+        }
+
         private boolean update(boolean fromBackground) {
-            if (!pin.isError && pin.watching) {
+            if (chanLoader != null && !pin.isError && pin.watching) {
                 if (fromBackground) {
                     // Always load regardless of timer, since the time left is not accurate for 15min+ intervals
-                    chanLoader.clearTimer();
+                    // Not clearTimer, a background load should not restart the back off
                     chanLoader.requestMoreData();
                     return true;
                 } else {
@@ -755,6 +1166,8 @@ public class WatchManager {
                 pin.watching = false;
             }
 
+            indexLastModified = -1;
+
             pinWatcherUpdated(this);
         }
 
@@ -766,31 +1179,20 @@ public class WatchManager {
                 pin.thumbnailUrl = thread.op.image().getThumbnailUrl().toString();
             }
 
-            // Populate posts list
-            posts.clear();
-            posts.addAll(thread.posts);
-
-            // Populate quotes list
-            quotes.clear();
-
-            // Get list of saved replies from this thread
-            List<Post> savedReplies = new ArrayList<>();
-            for (Post item : thread.posts) {
-                // saved.title = pin.loadable.title;
-
-                if (item.isSavedReply) {
-                    savedReplies.add(item);
-                }
-            }
-
-            // Now get a list of posts that have a quote to a saved reply
-            for (Post post : thread.posts) {
-                for (Post saved : savedReplies) {
-                    if (post.repliesTo.contains(saved.no)) {
-                        quotes.add(post);
-                    }
+            // Update the posts and quotes with only the new posts when the delta since the last
+            // update is known, rebuild them otherwise
+            if (thread != lastThread || thread.delta == null || thread.revision != lastRevision + 1) {
+                if (thread != lastThread || thread.revision != lastRevision) {
+                    posts.clear();
+                    quotes.clear();
+                    savedReplyNos.clear();
+                    addPosts(thread.posts);
                 }
+            } else {
+                addPosts(thread.delta.appended);
             }
+            lastThread = thread;
+            lastRevision = thread.revision;
 
             boolean isFirstLoad = pin.watchNewCount < 0 || pin.quoteNewCount < 0;
 
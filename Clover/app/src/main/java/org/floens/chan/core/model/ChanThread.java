@@ -17,19 +17,54 @@
  */
 package org.floens.chan.core.model;
 
+import android.support.annotation.MainThread;
+
 import org.floens.chan.core.model.orm.Loadable;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChanThread {
     public Loadable loadable;
     public List<Post> posts;
+
+    /**
+     * The posts of this thread by number, kept alive between loads so that a reload only needs to
+     * index and link its new posts. Only added to on the main thread, read by the loader threads.
+     */
+    public final Map<Integer, Post> postsByNo = new ConcurrentHashMap<>();
     public Post op;
     public boolean closed = false;
     public boolean archived = false;
 
+    /**
+     * Incremented on every load of this thread, and when the filters change its posts.
+     */
+    public int revision = 0;
+
+    /**
+     * What changed in the last load, from {@code revision - 1} to {@code revision}. {@code null}
+     * when the posts were not loaded incrementally.
+     */
+    public ChanThreadDelta delta;
+
     public ChanThread(Loadable loadable, List<Post> posts) {
         this.loadable = loadable;
         this.posts = posts;
     }
+
+    /**
+     * A rough estimate of the memory the posts of this thread keep alive, see
+     * {@link Post#estimateRetainedBytes()}.
+     */
+    @MainThread
+    public int estimateRetainedBytes() {
+        int bytes = 200;
+        for (int i = 0; i < posts.size(); i++) {
+            // The post itself and its entries in the list and the map.
+            bytes += posts.get(i).estimateRetainedBytes() + 48;
+        }
+        return bytes;
+    }
 }
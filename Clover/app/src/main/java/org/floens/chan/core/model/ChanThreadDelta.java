@@ -0,0 +1,58 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes to the posts of a thread between two loads, or after the filters changed, see {@link ChanThread#delta}.
+ */
+public class ChanThreadDelta {
+    public static final ChanThreadDelta EMPTY = new ChanThreadDelta(
+            Collections.<Post>emptyList(), Collections.<Post>emptyList(), Collections.<Post>emptyList(),
+            Collections.<Post>emptyList());
+
+    /**
+     * Posts added to the end of the thread, in order.
+     */
+    public final List<Post> appended;
+
+    /**
+     * Posts of which the deleted state changed.
+     */
+    public final List<Post> deletedChanged;
+
+    /**
+     * Posts that received new replies.
+     */
+    public final List<Post> repliesChanged;
+
+    /**
+     * Posts of which the result of the filters changed, after the filters were changed.
+     */
+    public final List<Post> filterChanged;
+
+    public ChanThreadDelta(List<Post> appended, List<Post> deletedChanged, List<Post> repliesChanged,
+                           List<Post> filterChanged) {
+        this.appended = appended;
+        this.deletedChanged = deletedChanged;
+        this.repliesChanged = repliesChanged;
+        this.filterChanged = filterChanged;
+    }
+}
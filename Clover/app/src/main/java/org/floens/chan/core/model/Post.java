@@ -20,6 +20,8 @@ package org.floens.chan.core.model;
 import android.support.annotation.MainThread;
 
 import org.floens.chan.core.model.orm.Board;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.ui.theme.Theme;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -45,7 +47,13 @@ public class Post {
 
     public final String name;
 
-    public final CharSequence comment;
+    /**
+     * The comment as plain text, see {@link #styledComment} and {@link #getCommentSpan(Theme)}
+     * for the styled version.
+     */
+    public final String comment;
+
+    public final StyledText styledComment;
 
     public final String subject;
 
@@ -66,11 +74,25 @@ public class Post {
 
     public final boolean isSavedReply;
 
-    public final int filterHighlightedColor;
+    /**
+     * The result of the filters. Set when the post is parsed, and changed on the main thread when
+     * the filters change, see {@link #setFilter(int, boolean, boolean)}.
+     */
+    public volatile int filterHighlightedColor;
 
-    public final boolean filterStub;
+    public volatile boolean filterStub;
 
-    public final boolean filterRemove;
+    public volatile boolean filterRemove;
+
+    /**
+     * The name, tripcode and poster id as received, before the anonymize settings replaced them.
+     * The filters match on these.
+     */
+    public final String filterName;
+
+    public final String filterTripcode;
+
+    public final String filterPosterId;
 
     /**
      * This post replies to the these ids.
@@ -79,9 +101,12 @@ public class Post {
 
     public final List<PostLinkable> linkables;
 
-    public final CharSequence subjectSpan;
+    /**
+     * The styled subject, or {@code null} if the post has no subject.
+     */
+    public final StyledText styledSubject;
 
-    public final CharSequence nameTripcodeIdCapcodeSpan;
+    public final StyledText styledNameTripcodeIdCapcode;
 
     /**
      * This post has been deleted (the server isn't sending it anymore).
@@ -106,6 +131,13 @@ public class Post {
     private long lastModified;
     private String title = "";
 
+    // The spans created from the styled texts for the last used theme and font size.
+    private Theme spansTheme;
+    private String spansFontSize;
+    private CharSequence commentSpan;
+    private CharSequence subjectSpan;
+    private CharSequence nameTripcodeIdCapcodeSpan;
+
     private Post(Builder builder) {
         board = builder.board;
         boardId = builder.board.code;
@@ -122,7 +154,9 @@ public class Post {
 
         subject = builder.subject;
         name = builder.name;
-        comment = builder.comment;
+        styledComment = builder.styledComment != null ?
+                builder.styledComment : StyledText.fromSpanned(builder.comment);
+        comment = styledComment.text;
         tripcode = builder.tripcode;
 
         time = builder.unixTimestampSeconds;
@@ -144,11 +178,15 @@ public class Post {
         filterHighlightedColor = builder.filterHighlightedColor;
         filterStub = builder.filterStub;
         filterRemove = builder.filterRemove;
+        filterName = builder.filterName != null ? builder.filterName : name;
+        filterTripcode = builder.filterTripcode != null ? builder.filterTripcode : tripcode;
+        filterPosterId = builder.filterPosterId != null ? builder.filterPosterId : id;
 
         isSavedReply = builder.isSavedReply;
 
-        subjectSpan = builder.subjectSpan;
-        nameTripcodeIdCapcodeSpan = builder.nameTripcodeIdCapcodeSpan;
+        styledSubject = builder.styledSubject;
+        styledNameTripcodeIdCapcode = builder.styledNameTripcodeIdCapcode != null ?
+                builder.styledNameTripcodeIdCapcode : StyledText.EMPTY;
 
         linkables = Collections.unmodifiableList(builder.linkables);
         repliesTo = Collections.unmodifiableSet(builder.repliesToIds);
@@ -224,6 +262,21 @@ public class Post {
         this.lastModified = lastModified;
     }
 
+    /**
+     * Change the result of the filters.
+     *
+     * @return {@code true} if anything changed.
+     */
+    public boolean setFilter(int highlightedColor, boolean stub, boolean remove) {
+        if (filterHighlightedColor == highlightedColor && filterStub == stub && filterRemove == remove) {
+            return false;
+        }
+        filterHighlightedColor = highlightedColor;
+        filterStub = stub;
+        filterRemove = remove;
+        return true;
+    }
+
     @MainThread
     public String getTitle() {
         return title;
@@ -234,6 +287,73 @@ public class Post {
         this.title = title;
     }
 
+    /**
+     * The comment with spans for the theme. The spans are created on first use and kept until
+     * another theme or font size is asked for.
+     */
+    @MainThread
+    public CharSequence getCommentSpan(Theme theme) {
+        materializeSpans(theme);
+        return commentSpan;
+    }
+
+    /**
+     * The subject with spans for the theme, or {@code null} if the post has no subject.
+     */
+    @MainThread
+    public CharSequence getSubjectSpan(Theme theme) {
+        materializeSpans(theme);
+        return subjectSpan;
+    }
+
+    @MainThread
+    public CharSequence getNameTripcodeIdCapcodeSpan(Theme theme) {
+        materializeSpans(theme);
+        return nameTripcodeIdCapcodeSpan;
+    }
+
+    private void materializeSpans(Theme theme) {
+        String fontSize = ChanSettings.fontSize.get();
+        if (theme == spansTheme && fontSize.equals(spansFontSize)) {
+            return;
+        }
+
+        spansTheme = theme;
+        spansFontSize = fontSize;
+        commentSpan = styledComment.materialize(theme);
+        subjectSpan = styledSubject == null ? null : styledSubject.materialize(theme);
+        nameTripcodeIdCapcodeSpan = styledNameTripcodeIdCapcode.materialize(theme);
+    }
+
+    /**
+     * A rough estimate of the memory this post keeps alive, including the created spans.
+     */
+    @MainThread
+    public int estimateRetainedBytes() {
+        // Object headers, fields, the collections and the AtomicBoolean.
+        int bytes = 400;
+        bytes += estimateRetainedBytes(styledComment);
+        bytes += estimateRetainedBytes(styledSubject);
+        bytes += estimateRetainedBytes(styledNameTripcodeIdCapcode);
+        bytes += 2 * (name.length() + subject.length() + tripcode.length() + title.length());
+        bytes += 300 * images.size();
+        bytes += 80 * linkables.size();
+        bytes += 40 * repliesTo.size();
+        synchronized (repliesFrom) {
+            bytes += 20 * repliesFrom.size();
+        }
+        if (spansTheme != null) {
+            // The spannables copy the text and add a span object for every run.
+            bytes += estimateRetainedBytes(styledComment);
+            bytes += estimateRetainedBytes(styledNameTripcodeIdCapcode);
+        }
+        return bytes;
+    }
+
+    private static int estimateRetainedBytes(StyledText text) {
+        return text == null ? 0 : 40 + 2 * text.text.length() + 48 * text.runStyles.length;
+    }
+
     /**
      * Return the first image, or {@code null} if post has no images.
      *
@@ -275,10 +395,16 @@ public class Post {
         public boolean filterStub;
         public boolean filterRemove;
 
+        // Set when the anonymize settings replace the name, tripcode or poster id.
+        public String filterName;
+        public String filterTripcode;
+        public String filterPosterId;
+
         public boolean isSavedReply;
 
-        public CharSequence subjectSpan;
-        public CharSequence nameTripcodeIdCapcodeSpan;
+        public StyledText styledComment;
+        public StyledText styledSubject;
+        public StyledText styledNameTripcodeIdCapcode;
 
         private List<PostLinkable> linkables = new ArrayList<>();
         private Set<Integer> repliesToIds = new HashSet<>();
@@ -407,9 +533,14 @@ public class Post {
             return this;
         }
 
-        public Builder spans(CharSequence subjectSpan, CharSequence nameTripcodeIdCapcodeSpan) {
-            this.subjectSpan = subjectSpan;
-            this.nameTripcodeIdCapcodeSpan = nameTripcodeIdCapcodeSpan;
+        public Builder styledComment(StyledText styledComment) {
+            this.styledComment = styledComment;
+            return this;
+        }
+
+        public Builder spans(StyledText styledSubject, StyledText styledNameTripcodeIdCapcode) {
+            this.styledSubject = styledSubject;
+            this.styledNameTripcodeIdCapcode = styledNameTripcodeIdCapcode;
             return this;
         }
 
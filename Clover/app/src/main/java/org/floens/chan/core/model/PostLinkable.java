@@ -28,6 +28,8 @@ import org.floens.chan.ui.theme.Theme;
 
 /**
  * A Clickable span that handles post clicks. These are created in PostParser for post quotes, spoilers etc.<br>
+ * The parser creates them without a theme, these are kept in {@link Post#linkables} and in the
+ * {@link StyledText} of the comment. The spans are themed copies made by {@link StyledText#materialize}.<br>
  * PostCell has a {@link PostCell.PostViewMovementMethod}, that searches spans at the location the TextView was tapped,
  * and handled if it was a PostLinkable.
  */
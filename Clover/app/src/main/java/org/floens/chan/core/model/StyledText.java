@@ -0,0 +1,233 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.model;
+
+import android.graphics.Typeface;
+import android.support.annotation.MainThread;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.UnderlineSpan;
+
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
+import org.floens.chan.ui.span.ForegroundColorSpanHashed;
+import org.floens.chan.ui.theme.Theme;
+
+import static org.floens.chan.utils.AndroidUtils.sp;
+
+/**
+ * Text with styled runs that do not depend on the theme or the font size.<br>
+ * The parsers produce these instead of spannables with the colors and sizes baked in, the
+ * spannable is created with {@link #materialize(Theme)} when a post is bound to a view. A theme
+ * or font size change then only needs the spans to be created again, not the html to be parsed
+ * again.
+ * <p>
+ * The runs are kept as plain arrays of offsets, styles and values so the text can be stored as
+ * is. The values are {@code null}, an {@link Integer} color, a {@link Float} size in sp, a
+ * {@link Boolean} or a {@link PostLinkable} without a theme.
+ */
+public class StyledText {
+    public static final StyledText EMPTY = new StyledText("",
+            new int[0], new int[0], new Style[0], new Object[0]);
+
+    public enum Style {
+        /**
+         * A {@link PostLinkable}, a themed copy is made for the spans.
+         */
+        LINKABLE,
+        COLOR_INLINE_QUOTE,
+        COLOR_QUOTE,
+        COLOR_SUBJECT,
+        COLOR_NAME,
+        COLOR_CAPCODE,
+        /**
+         * A fixed color, the value is the argb color.
+         */
+        COLOR,
+        /**
+         * The background of poster ids, the value is {@code true} for light id colors.
+         */
+        ID_BACKGROUND,
+        STRIKETHROUGH,
+        UNDERLINE,
+        BOLD,
+        ITALIC,
+        BOLD_ITALIC,
+        MONOSPACE,
+        /**
+         * A fixed size, the value is the size in sp.
+         */
+        SIZE,
+        /**
+         * The size of the post details, depends on the font size setting.
+         */
+        DETAILS_SIZE
+    }
+
+    public final String text;
+
+    public final int[] runStarts;
+    public final int[] runEnds;
+    public final Style[] runStyles;
+    public final Object[] runValues;
+
+    public StyledText(String text, int[] runStarts, int[] runEnds, Style[] runStyles, Object[] runValues) {
+        this.text = text;
+        this.runStarts = runStarts;
+        this.runEnds = runEnds;
+        this.runStyles = runStyles;
+        this.runValues = runValues;
+    }
+
+    /**
+     * A marker span for the parsers, set on the spannables they build and collected by
+     * {@link #fromSpanned(CharSequence)}.
+     */
+    public static Marker span(Style style) {
+        return new Marker(style, null);
+    }
+
+    public static Marker span(Style style, Object value) {
+        return new Marker(style, value);
+    }
+
+    /**
+     * Collect the {@link Marker}s set on the text into runs. Other spans are dropped.
+     */
+    public static StyledText fromSpanned(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return EMPTY;
+        }
+
+        if (!(text instanceof Spanned)) {
+            return new StyledText(text.toString(),
+                    EMPTY.runStarts, EMPTY.runEnds, EMPTY.runStyles, EMPTY.runValues);
+        }
+
+        Spanned spanned = (Spanned) text;
+        Marker[] markers = spanned.getSpans(0, spanned.length(), Marker.class);
+
+        int[] starts = new int[markers.length];
+        int[] ends = new int[markers.length];
+        Style[] styles = new Style[markers.length];
+        Object[] values = new Object[markers.length];
+        for (int i = 0; i < markers.length; i++) {
+            Marker marker = markers[i];
+            starts[i] = spanned.getSpanStart(marker);
+            ends[i] = spanned.getSpanEnd(marker);
+            styles[i] = marker.style;
+            values[i] = marker.value;
+        }
+
+        return new StyledText(spanned.toString(), starts, ends, styles, values);
+    }
+
+    public boolean isEmpty() {
+        return text.isEmpty();
+    }
+
+    /**
+     * Create the spannable for the theme and the current font size.
+     */
+    @MainThread
+    public CharSequence materialize(Theme theme) {
+        if (runStyles.length == 0) {
+            return text;
+        }
+
+        SpannableString result = new SpannableString(text);
+        int detailsSizePx = 0;
+        for (int i = 0; i < runStyles.length; i++) {
+            Object value = runValues[i];
+            Object span;
+            switch (runStyles[i]) {
+                case LINKABLE:
+                    PostLinkable linkable = (PostLinkable) value;
+                    span = new PostLinkable(theme, linkable.key, linkable.value, linkable.type);
+                    break;
+                case COLOR_INLINE_QUOTE:
+                    span = new ForegroundColorSpanHashed(theme.inlineQuoteColor);
+                    break;
+                case COLOR_QUOTE:
+                    span = new ForegroundColorSpanHashed(theme.quoteColor);
+                    break;
+                case COLOR_SUBJECT:
+                    span = new ForegroundColorSpanHashed(theme.subjectColor);
+                    break;
+                case COLOR_NAME:
+                    span = new ForegroundColorSpanHashed(theme.nameColor);
+                    break;
+                case COLOR_CAPCODE:
+                    span = new ForegroundColorSpanHashed(theme.capcodeColor);
+                    break;
+                case COLOR:
+                    span = new ForegroundColorSpanHashed((Integer) value);
+                    break;
+                case ID_BACKGROUND:
+                    span = new BackgroundColorSpan(
+                            (Boolean) value ? theme.idBackgroundLight : theme.idBackgroundDark);
+                    break;
+                case STRIKETHROUGH:
+                    span = new StrikethroughSpan();
+                    break;
+                case UNDERLINE:
+                    span = new UnderlineSpan();
+                    break;
+                case BOLD:
+                    span = new StyleSpan(Typeface.BOLD);
+                    break;
+                case ITALIC:
+                    span = new StyleSpan(Typeface.ITALIC);
+                    break;
+                case BOLD_ITALIC:
+                    span = new StyleSpan(Typeface.BOLD_ITALIC);
+                    break;
+                case MONOSPACE:
+                    span = new TypefaceSpan("monospace");
+                    break;
+                case SIZE:
+                    span = new AbsoluteSizeSpanHashed(sp((Float) value));
+                    break;
+                case DETAILS_SIZE:
+                    if (detailsSizePx == 0) {
+                        detailsSizePx = sp(Integer.parseInt(ChanSettings.fontSize.get()) - 4);
+                    }
+                    span = new AbsoluteSizeSpanHashed(detailsSizePx);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown style " + runStyles[i]);
+            }
+            result.setSpan(span, runStarts[i], runEnds[i], 0);
+        }
+        return result;
+    }
+
+    public static final class Marker {
+        public final Style style;
+        public final Object value;
+
+        private Marker(Style style, Object value) {
+            this.style = style;
+            this.value = value;
+        }
+    }
+}
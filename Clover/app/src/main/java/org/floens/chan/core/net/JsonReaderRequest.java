@@ -18,6 +18,7 @@
 package org.floens.chan.core.net;
 
 import android.util.JsonReader;
+import android.util.MalformedJsonException;
 
 import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
@@ -26,18 +27,31 @@ import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.StreamingRequest;
 
 import org.floens.chan.utils.IOUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.util.Map;
 
-public abstract class JsonReaderRequest<T> extends Request<T> {
+public abstract class JsonReaderRequest<T> extends Request<T> implements StreamingRequest {
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     protected final Listener<T> listener;
 
+    // Result of reading the json straight from the connection, see shouldStream().
+    private boolean streamed;
+    private T streamedResult;
+    private Exception streamedException;
+
+    // Size of the response body, counted while it is read.
+    private volatile long responseBytes;
+
     public JsonReaderRequest(String url, Listener<T> listener, ErrorListener errorListener) {
         super(Method.GET, url, errorListener);
 
@@ -49,20 +63,64 @@ public abstract class JsonReaderRequest<T> extends Request<T> {
         listener.onResponse(response);
     }
 
+    /**
+     * Read the json directly from the connection while it is being downloaded, instead of after
+     * the complete response was buffered. Off by default.
+     */
     @Override
-    protected Response<T> parseNetworkResponse(NetworkResponse response) {
-        ByteArrayInputStream baos = new ByteArrayInputStream(response.data);
-        JsonReader reader = new JsonReader(new InputStreamReader(baos, UTF8));
+    public boolean shouldStream() {
+        return false;
+    }
 
-        Exception exception = null;
-        T read = null;
+    /**
+     * Reads the json from the connection. Errors of the connection are thrown, so that the network
+     * retries the request or delivers a network error, only errors in the json itself end up as
+     * the error of the response.
+     */
+    @Override
+    public void readStream(InputStream inputStream, Map<String, String> headers) throws IOException {
+        streamed = true;
+        streamedResult = null;
+        streamedException = null;
+
+        CountingInputStream counting = new CountingInputStream(inputStream);
+        JsonReader reader = new JsonReader(new InputStreamReader(counting, UTF8));
         try {
-            read = readJson(reader);
+            streamedResult = readJson(reader);
+        } catch (MalformedJsonException e) {
+            streamedException = e;
+        } catch (IOException e) {
+            // The connection failed, not the json.
+            throw e;
         } catch (Exception e) {
-            exception = e;
+            streamedException = e;
+        } finally {
+            IOUtils.closeQuietly(reader);
+            responseBytes = counting.count;
         }
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        Exception exception = null;
+        T read = null;
 
-        IOUtils.closeQuietly(reader);
+        if (streamed) {
+            read = streamedResult;
+            exception = streamedException;
+        } else {
+            responseBytes = response.data == null ? 0 : response.data.length;
+            ByteArrayInputStream baos = new ByteArrayInputStream(response.data);
+            JsonReader reader = new JsonReader(new InputStreamReader(baos, UTF8));
+
+            try {
+                read = readJson(reader);
+            } catch (Exception e) {
+                exception = e;
+            }
+
+            IOUtils.closeQuietly(reader);
+        }
 
         if (read == null) {
             if (exception != null) {
@@ -71,10 +129,18 @@ public abstract class JsonReaderRequest<T> extends Request<T> {
                 return Response.error(new VolleyError("Unknown error"));
             }
         } else {
-            return Response.success(read, HttpHeaderParser.parseCacheHeaders(response));
+            // A streamed response has no body to put in the cache.
+            return Response.success(read, streamed ? null : HttpHeaderParser.parseCacheHeaders(response));
         }
     }
 
+    /**
+     * The size of the response body in bytes, valid after the response was parsed.
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
     /**
      * Read your json. Returning null or throwing something means a Response.error, Response.success is returned otherwise.
      * The reader is closed for you.
@@ -84,4 +150,37 @@ public abstract class JsonReaderRequest<T> extends Request<T> {
      * @throws Exception none or an exception
      */
     public abstract T readJson(JsonReader reader) throws Exception;
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request.Method;
+import com.android.volley.toolbox.HttpStack;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.floens.chan.core.settings.ChanSettings;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A volley {@link HttpStack} on top of the shared {@link OkHttpClient}, so that volley requests
+ * share the connection pool, dns and tls sessions with the rest of the app, and use HTTP/2 when
+ * the server supports it.
+ */
+public class OkHttpStack implements HttpStack {
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private final OkHttpClient client;
+    private final String userAgent;
+
+    public OkHttpStack(OkHttpClient client, String userAgent) {
+        this.client = client;
+        this.userAgent = userAgent;
+    }
+
+    @Override
+    public HttpResponse performRequest(com.android.volley.Request<?> request,
+                                       Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        int timeoutMs = request.getTimeoutMs();
+        // Derived clients share the pool and dispatcher of the shared client.
+        OkHttpClient requestClient = client.newBuilder()
+                .proxy(ChanSettings.getProxy())
+                .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        Request.Builder builder = new Request.Builder()
+                .url(request.getUrl());
+
+        if (request.getTag() instanceof RateLimiter.Tag) {
+            builder.tag(request.getTag());
+        }
+
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        builder.header("User-Agent", userAgent);
+
+        setMethodForRequest(builder, request);
+
+        Response response = requestClient.newCall(builder.build()).execute();
+
+        StatusLine statusLine = new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1),
+                response.code(), response.message());
+        BasicHttpResponse httpResponse = new BasicHttpResponse(statusLine);
+        httpResponse.setEntity(entityFromResponse(response));
+
+        Headers headers = response.headers();
+        for (int i = 0; i < headers.size(); i++) {
+            httpResponse.addHeader(new BasicHeader(headers.name(i), headers.value(i)));
+        }
+
+        return httpResponse;
+    }
+
+    private static HttpEntity entityFromResponse(Response response) {
+        BasicHttpEntity entity = new BasicHttpEntity();
+        ResponseBody body = response.body();
+        if (body != null) {
+            // Closing the content, done by BasicNetwork, releases the connection.
+            entity.setContent(body.byteStream());
+            entity.setContentLength(body.contentLength());
+            MediaType contentType = body.contentType();
+            if (contentType != null) {
+                entity.setContentType(contentType.toString());
+            }
+        }
+        entity.setContentEncoding(response.header("Content-Encoding"));
+        return entity;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void setMethodForRequest(Request.Builder builder,
+                                            com.android.volley.Request<?> request)
+            throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Method.DEPRECATED_GET_OR_POST:
+                byte[] postBody = request.getPostBody();
+                if (postBody != null) {
+                    builder.post(RequestBody.create(
+                            MediaType.parse(request.getPostBodyContentType()), postBody));
+                }
+                break;
+            case Method.GET:
+                builder.get();
+                break;
+            case Method.DELETE:
+                builder.delete();
+                break;
+            case Method.POST:
+                builder.post(createBody(request));
+                break;
+            case Method.PUT:
+                builder.put(createBody(request));
+                break;
+            case Method.HEAD:
+                builder.head();
+                break;
+            case Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            case Method.PATCH:
+                builder.patch(createBody(request));
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    private static RequestBody createBody(com.android.volley.Request<?> request)
+            throws AuthFailureError {
+        byte[] body = request.getBody();
+        if (body == null) {
+            body = new byte[0];
+        }
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()), body);
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.net;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.AnyThread;
+
+import com.android.volley.RequestQueue;
+
+import org.floens.chan.core.site.Site;
+import org.floens.chan.utils.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Limits the request rate per site with a token bucket, and lets requests of a higher priority
+ * go first when requests are waiting.<br>
+ * Requests name their site and priority with a {@link Tag}. Volley requests for a site are
+ * added to the queue with {@link #add(RequestQueue, com.android.volley.Request)}, which holds them
+ * back until the site has a token, so that a throttled request never occupies one of the few
+ * network threads of volley. Other requests are limited by the interceptor on the shared
+ * OkHttpClient, which blocks the calling thread: the HttpCallManager calls and the FileCache
+ * downloads, that run on threads of their own.
+ * <p>
+ * Downloads of the FileCache are limited per media host with a larger budget. Requests without a
+ * tag, like the volley thumbnails, are not limited.
+ * <p>
+ * A 429 or 503 response empties the bucket, and pauses the site for the Retry-After time.
+ */
+public class RateLimiter implements Interceptor {
+    private static final String TAG = "RateLimiter";
+
+    // Requests that may be made at once after being idle, and the refill rate, of sites.
+    private static final int BURST = 8;
+    private static final double TOKENS_PER_SECOND = 4.0;
+    // The same for media hosts.
+    private static final int MEDIA_BURST = 16;
+    private static final double MEDIA_TOKENS_PER_SECOND = 8.0;
+    // How long to back off after a 429 without a usable Retry-After, and the maximum.
+    private static final long DEFAULT_BACKOFF = 5000L;
+    private static final long MAX_BACKOFF = 60000L;
+    // Waiting requests wake up this often to check if their call was canceled.
+    private static final long CANCEL_CHECK_INTERVAL = 250L;
+
+    /**
+     * The priority classes, in order of importance.
+     */
+    public enum Priority {
+        /**
+         * The thread or catalog the user is looking at, and posting.
+         */
+        FOREGROUND,
+        /**
+         * Media the user opened or is saving.
+         */
+        MEDIA,
+        /**
+         * Refreshing watched pins.
+         */
+        PIN_REFRESH,
+        /**
+         * Anything loaded before the user asked for it.
+         */
+        PREFETCH
+    }
+
+    /**
+     * Set with {@link Request.Builder#tag(Object)}, or as the volley request tag for the
+     * {@link OkHttpStack}. Volley requests with a site tag are added with
+     * {@link #add(RequestQueue, com.android.volley.Request)}.
+     */
+    public static class Tag {
+        /**
+         * The bucket, or {@code null} to limit per host.
+         */
+        public final String key;
+        public final Priority priority;
+
+        // Set when the request got its token before it was dispatched.
+        private volatile boolean acquired;
+
+        /**
+         * Limit per media host, for downloads of the FileCache.
+         */
+        public Tag(Priority priority) {
+            this((String) null, priority);
+        }
+
+        public Tag(Site site, Priority priority) {
+            this("site " + site.id(), priority);
+        }
+
+        public Tag(String key, Priority priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+
+    public static class BucketStats {
+        public final String key;
+        /**
+         * Waiting requests, indexed by {@link Priority#ordinal()}.
+         */
+        public final int[] waiting;
+        public final long requests;
+        public final long throttledRequests;
+        public final long throttledMillis;
+
+        private BucketStats(Bucket bucket) {
+            key = bucket.key;
+            waiting = bucket.waitingPerPriority.clone();
+            requests = bucket.requests;
+            throttledRequests = bucket.throttledRequests;
+            throttledMillis = bucket.throttledMillis;
+        }
+    }
+
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!(request.tag() instanceof Tag)) {
+            return chain.proceed(request);
+        }
+
+        Tag tag = (Tag) request.tag();
+        Bucket bucket = tag.key == null ?
+                getBucket("host " + request.url().host(), MEDIA_BURST, MEDIA_TOKENS_PER_SECOND) :
+                getBucket(tag.key, BURST, TOKENS_PER_SECOND);
+        if (!tag.acquired) {
+            bucket.acquire(tag.priority, chain);
+        }
+
+        Response response = chain.proceed(request);
+        if (response.code() == 429 || response.code() == 503) {
+            bucket.backOff(response.header("Retry-After"));
+        }
+        return response;
+    }
+
+    /**
+     * Add the volley request to the queue once its site has a token. Requests without a site tag
+     * are added right away.
+     */
+    @AnyThread
+    public void add(RequestQueue queue, com.android.volley.Request<?> request) {
+        if (!(request.getTag() instanceof Tag) || ((Tag) request.getTag()).key == null) {
+            queue.add(request);
+            return;
+        }
+
+        Tag tag = (Tag) request.getTag();
+        Bucket bucket = getBucket(tag.key, BURST, TOKENS_PER_SECOND);
+        synchronized (bucket) {
+            bucket.enqueue(new Pending(tag, queue, request, bucket.sequence++));
+        }
+        dispatch(bucket);
+    }
+
+    /**
+     * Add the pending requests of the bucket that have a token to their queue, and check again
+     * when the next token is due.
+     */
+    private void dispatch(final Bucket bucket) {
+        List<Pending> ready = new ArrayList<>();
+        long wait;
+        synchronized (bucket) {
+            wait = bucket.takeReady(ready);
+        }
+
+        for (int i = 0; i < ready.size(); i++) {
+            Pending pending = ready.get(i);
+            pending.tag.acquired = true;
+            pending.queue.add(pending.request);
+        }
+
+        if (wait >= 0) {
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (bucket) {
+                        bucket.dispatchScheduled = false;
+                    }
+                    dispatch(bucket);
+                }
+            }, wait);
+        }
+    }
+
+    /**
+     * Queue depths and totals per bucket, for debugging.
+     */
+    public List<BucketStats> getStats() {
+        List<Bucket> all;
+        synchronized (buckets) {
+            all = new ArrayList<>(buckets.values());
+        }
+
+        List<BucketStats> stats = new ArrayList<>(all.size());
+        for (Bucket bucket : all) {
+            synchronized (bucket) {
+                stats.add(new BucketStats(bucket));
+            }
+        }
+        return stats;
+    }
+
+    private Bucket getBucket(String key, int burst, double tokensPerSecond) {
+        synchronized (buckets) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(key, burst, tokensPerSecond);
+                buckets.put(key, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final Priority priority;
+        private final long sequence;
+
+        private Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return priority.ordinal() - other.priority.ordinal();
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * A volley request waiting for a token, before it was added to the queue.
+     */
+    private static class Pending extends Waiter {
+        private final Tag tag;
+        private final RequestQueue queue;
+        private final com.android.volley.Request<?> request;
+        private final long enqueueTime = System.currentTimeMillis();
+
+        private Pending(Tag tag, RequestQueue queue, com.android.volley.Request<?> request, long sequence) {
+            super(tag.priority, sequence);
+            this.tag = tag;
+            this.queue = queue;
+            this.request = request;
+        }
+    }
+
+    private static class Bucket {
+        private final String key;
+        private final int burst;
+        private final double tokensPerSecond;
+        // Threads blocked in the interceptor.
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+        // Volley requests not yet added to their queue.
+        private final PriorityQueue<Pending> pending = new PriorityQueue<>();
+        private final int[] waitingPerPriority = new int[Priority.values().length];
+        private boolean dispatchScheduled;
+
+        private double tokens;
+        private long lastRefill = System.currentTimeMillis();
+        private long pausedUntil;
+        private long sequence;
+
+        private long requests;
+        private long throttledRequests;
+        private long throttledMillis;
+
+        private Bucket(String key, int burst, double tokensPerSecond) {
+            this.key = key;
+            this.burst = burst;
+            this.tokensPerSecond = tokensPerSecond;
+            tokens = burst;
+        }
+
+        private void enqueue(Pending request) {
+            requests++;
+            pending.add(request);
+            waitingPerPriority[request.priority.ordinal()]++;
+        }
+
+        /**
+         * Move the pending requests that can go now to {@code ready}, in priority order.
+         *
+         * @return the time until the next pending request can go, or -1 if there is nothing
+         * left to wait for or a dispatch is already scheduled.
+         */
+        private long takeReady(List<Pending> ready) {
+            refill();
+            long now = System.currentTimeMillis();
+            while (!pending.isEmpty()) {
+                Pending next = pending.peek();
+                if (next.request.isCanceled()) {
+                    pending.poll();
+                    waitingPerPriority[next.priority.ordinal()]--;
+                    continue;
+                }
+
+                // Threads blocked in the interceptor go first, they are mostly posts.
+                if (!waiters.isEmpty() || tokens < 1.0 || now < pausedUntil) {
+                    break;
+                }
+
+                tokens -= 1.0;
+                pending.poll();
+                waitingPerPriority[next.priority.ordinal()]--;
+                if (now > next.enqueueTime) {
+                    throttledRequests++;
+                    throttledMillis += now - next.enqueueTime;
+                }
+                ready.add(next);
+            }
+
+            if (pending.isEmpty() || dispatchScheduled) {
+                return -1;
+            }
+            dispatchScheduled = true;
+            return Math.max(1L, Math.min(getWait(now), CANCEL_CHECK_INTERVAL));
+        }
+
+        private long getWait(long now) {
+            if (now < pausedUntil) {
+                return pausedUntil - now;
+            } else if (tokens < 1.0) {
+                return (long) Math.ceil((1.0 - tokens) * 1000.0 / tokensPerSecond);
+            } else {
+                // Waiting on a blocked thread to get its token.
+                return CANCEL_CHECK_INTERVAL;
+            }
+        }
+
+        private synchronized void acquire(Priority priority, Chain chain) throws IOException {
+            requests++;
+            refill();
+            if (waiters.isEmpty() && tokens >= 1.0 && System.currentTimeMillis() >= pausedUntil) {
+                tokens -= 1.0;
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            Waiter waiter = new Waiter(priority, sequence++);
+            waiters.add(waiter);
+            waitingPerPriority[priority.ordinal()]++;
+            throttledRequests++;
+            try {
+                while (true) {
+                    if (chain.call().isCanceled()) {
+                        throw new IOException("Canceled");
+                    }
+
+                    refill();
+                    long now = System.currentTimeMillis();
+                    if (waiters.peek() == waiter && tokens >= 1.0 && now >= pausedUntil) {
+                        tokens -= 1.0;
+                        return;
+                    }
+
+                    // When it is not our turn, woken up when the one before us got its token.
+                    wait(Math.max(1L, Math.min(getWait(now), CANCEL_CHECK_INTERVAL)));
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                waiters.remove(waiter);
+                waitingPerPriority[priority.ordinal()]--;
+                throttledMillis += System.currentTimeMillis() - start;
+                notifyAll();
+            }
+        }
+
+        private synchronized void backOff(String retryAfter) {
+            long backOff = DEFAULT_BACKOFF;
+            if (retryAfter != null) {
+                try {
+                    backOff = Long.parseLong(retryAfter.trim()) * 1000L;
+                } catch (NumberFormatException ignored) {
+                    // Http dates are not worth parsing here, use the default.
+                }
+            }
+            backOff = Math.max(0L, Math.min(MAX_BACKOFF, backOff));
+
+            Logger.w(TAG, "Throttled by " + key + ", pausing for " + backOff + "ms");
+
+            tokens = 0.0;
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + backOff);
+        }
+
+        private void refill() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerSecond / 1000.0);
+            lastRefill = now;
+        }
+    }
+}
@@ -17,33 +17,136 @@
  */
 package org.floens.chan.core.pool;
 
-import android.util.LruCache;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.v4.util.LruCache;
 
+import org.floens.chan.core.manager.FilterEngine;
 import org.floens.chan.core.site.loader.ChanThreadLoader;
 import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.utils.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import de.greenrobot.event.EventBus;
+
+import static org.floens.chan.utils.AndroidUtils.getAppContext;
+
 /**
  * ChanLoaderFactory is a factory for ChanLoaders. ChanLoaders for threads are cached.
  * <p>Each reference to a loader is a {@link ChanThreadLoader.ChanLoaderCallback}, these
  * references can be obtained with {@link #obtain(Loadable, ChanThreadLoader.ChanLoaderCallback)}} and released
  * with {@link #release(ChanThreadLoader, ChanThreadLoader.ChanLoaderCallback)}.
+ * <p>Released thread loaders are cached by the estimated memory of their thread, within a budget
+ * derived from the memory class of the device, or the one set in
+ * {@link ChanSettings#threadCacheBudget}. The cache is shrunk when the system asks to trim
+ * memory. Evicted loaders write their thread to the snapshot store first, so that opening the
+ * thread again does not need a full load.
+ * <p>When the filters change, all loaded threads and catalogs apply them again to their posts.
  */
 @Singleton
-public class ChanLoaderFactory {
-    // private static final String TAG = "ChanLoaderFactory";
-    public static final int THREAD_LOADERS_CACHE_SIZE = 25;
+public class ChanLoaderFactory implements ComponentCallbacks2 {
+    private static final String TAG = "ChanLoaderFactory";
+    // Part of the memory class used for the cache, and its bounds in bytes.
+    private static final int CACHE_MEMORY_DIVIDER = 8;
+    private static final int MIN_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_CACHE_SIZE = 48 * 1024 * 1024;
 
     private Map<Loadable, ChanThreadLoader> threadLoaders = new HashMap<>();
-    private LruCache<Loadable, ChanThreadLoader> threadLoadersCache = new LruCache<>(THREAD_LOADERS_CACHE_SIZE);
+    private LruCache<Loadable, ChanThreadLoader> threadLoadersCache;
+    private int cacheBudget;
+    // Catalog loaders are not shared or cached, kept here to apply filter changes to them.
+    private List<ChanThreadLoader> catalogLoaders = new ArrayList<>();
 
     @Inject
     public ChanLoaderFactory() {
+        cacheBudget = getConfiguredCacheBudget();
+
+        threadLoadersCache = new LruCache<Loadable, ChanThreadLoader>(cacheBudget) {
+            @Override
+            protected int sizeOf(Loadable key, ChanThreadLoader value) {
+                return Math.max(1, value.getRetainedBytes());
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Loadable key, ChanThreadLoader oldValue,
+                                        ChanThreadLoader newValue) {
+                if (evicted) {
+                    // Dropped from memory, keep it on disk
+                    oldValue.saveSnapshot();
+                }
+            }
+        };
+
+        getAppContext().registerComponentCallbacks(this);
+        EventBus.getDefault().register(this);
+    }
+
+    public void onEvent(FilterEngine.FiltersChangedMessage message) {
+        for (ChanThreadLoader loader : getThreadLoaders()) {
+            loader.onFiltersChanged(message);
+        }
+        for (int i = 0; i < catalogLoaders.size(); i++) {
+            catalogLoaders.get(i).onFiltersChanged(message);
+        }
+    }
+
+    public void onEvent(ChanSettings.SettingChanged<?> settingChanged) {
+        if (settingChanged.setting == ChanSettings.threadCacheBudget) {
+            cacheBudget = getConfiguredCacheBudget();
+            threadLoadersCache.resize(cacheBudget);
+        }
+    }
+
+    public int getCacheBudget() {
+        return cacheBudget;
+    }
+
+    public int getCacheSize() {
+        return threadLoadersCache.size();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int size;
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // Next in line to be killed, free everything
+            size = 0;
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            size = cacheBudget / 4;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            size = cacheBudget / 2;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            size = 0;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            size = cacheBudget / 4;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            size = cacheBudget / 2;
+        } else {
+            return;
+        }
+
+        Logger.i(TAG, "Trim memory level " + level + ", trimming the loader cache from " +
+                threadLoadersCache.size() + " to " + size + " bytes");
+        threadLoadersCache.trimToSize(size);
+    }
+
+    @Override
+    public void onLowMemory() {
+        threadLoadersCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
     }
 
     public ChanThreadLoader obtain(Loadable loadable, ChanThreadLoader.ChanLoaderCallback listener) {
@@ -68,6 +171,7 @@ public class ChanLoaderFactory {
             }
         } else {
             chanLoader = new ChanThreadLoader(loadable);
+            catalogLoaders.add(chanLoader);
         }
 
         chanLoader.addListener(listener);
@@ -75,6 +179,15 @@ public class ChanLoaderFactory {
         return chanLoader;
     }
 
+    /**
+     * The thread loaders that are in use or cached.
+     */
+    public List<ChanThreadLoader> getThreadLoaders() {
+        List<ChanThreadLoader> loaders = new ArrayList<>(threadLoaders.values());
+        loaders.addAll(threadLoadersCache.snapshot().values());
+        return loaders;
+    }
+
     public void release(ChanThreadLoader chanLoader, ChanThreadLoader.ChanLoaderCallback listener) {
         Loadable loadable = chanLoader.getLoadable();
         if (loadable.isThreadMode()) {
@@ -86,10 +199,27 @@ public class ChanLoaderFactory {
 
             if (chanLoader.removeListener(listener)) {
                 threadLoaders.remove(loadable);
+                // The thread doesn't change while cached, so the size stays valid.
+                chanLoader.measureRetainedBytes();
                 threadLoadersCache.put(loadable, chanLoader);
             }
         } else {
-            chanLoader.removeListener(listener);
+            if (chanLoader.removeListener(listener)) {
+                catalogLoaders.remove(chanLoader);
+            }
         }
     }
+
+    // The maximum estimated memory of the cached thread loaders, in bytes.
+    private static int getConfiguredCacheBudget() {
+        int megabytes = ChanSettings.threadCacheBudget.get();
+        if (megabytes > 0) {
+            return megabytes * 1024 * 1024;
+        }
+
+        ActivityManager activityManager =
+                (ActivityManager) getAppContext().getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass() * 1024 * 1024;
+        return Math.max(MIN_CACHE_SIZE, Math.min(MAX_CACHE_SIZE, memoryClass / CACHE_MEMORY_DIVIDER));
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.pool;
+
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.floens.chan.core.database.DatabaseManager;
+import org.floens.chan.core.exception.ChanLoaderException;
+import org.floens.chan.core.model.ChanThread;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.core.site.loader.ChanThreadLoader;
+import org.floens.chan.ui.helper.PostHelper;
+import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static org.floens.chan.utils.AndroidUtils.isConnected;
+
+/**
+ * Loads threads the user is likely to open next into the {@link ChanLoaderFactory} cache, so that
+ * opening them shows the posts right away.<br>
+ * Threads are picked from the catalog the user is looking at: threads that were long pressed,
+ * threads started by the user and threads highlighted by a filter. Only enabled with the
+ * {@link ChanSettings#threadPrefetchNetwork} setting, and only on the network types it allows.
+ * <p>
+ * One thread is loaded at a time, with the {@link org.floens.chan.core.net.RateLimiter.Priority#PREFETCH}
+ * priority, so prefetches wait for the loads the user is waiting on. The downloaded bytes are
+ * limited to {@link #BUDGET_BYTES} per {@link #BUDGET_WINDOW}.
+ */
+@Singleton
+public class ThreadPrefetcher {
+    private static final String TAG = "ThreadPrefetcher";
+
+    private static final int MAX_PER_CATALOG = 5;
+    private static final int MAX_QUEUED = 10;
+    // Wait a bit after the catalog loaded, the thumbnails of the catalog go first.
+    private static final long START_DELAY = 2000;
+    // A thread is not prefetched again within this time.
+    private static final long PREFETCH_INTERVAL = 10 * 60 * 1000;
+    private static final long BUDGET_BYTES = 4 * 1024 * 1024;
+    private static final long BUDGET_WINDOW = 60 * 60 * 1000;
+
+    private final ChanLoaderFactory chanLoaderFactory;
+    private final DatabaseManager databaseManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final List<Loadable> queue = new ArrayList<>();
+    private final Map<Loadable, Long> prefetched = new HashMap<>();
+    private Prefetch current;
+
+    private long budgetWindowStart;
+    private long budgetUsed;
+
+    private final Runnable startNext = this::startNext;
+
+    @Inject
+    public ThreadPrefetcher(ChanLoaderFactory chanLoaderFactory, DatabaseManager databaseManager) {
+        this.chanLoaderFactory = chanLoaderFactory;
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Queue the threads of a loaded catalog that the user started or that are highlighted by a
+     * filter.
+     */
+    public void onCatalogLoaded(ChanThread catalog) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        int added = 0;
+        for (int i = 0; i < catalog.posts.size() && added < MAX_PER_CATALOG; i++) {
+            Post op = catalog.posts.get(i);
+            if (op.isSavedReply || op.filterHighlightedColor != 0) {
+                if (enqueue(catalog.loadable, op, false)) {
+                    added++;
+                }
+            }
+        }
+
+        if (added > 0) {
+            schedule(START_DELAY);
+        }
+    }
+
+    /**
+     * Queue a thread that was long pressed in the catalog, before the other queued threads.
+     */
+    public void onCatalogPostLongPressed(Loadable catalog, Post op) {
+        if (isEnabled() && enqueue(catalog, op, true)) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Drop the queued threads, for when the user leaves the catalog. A running prefetch is
+     * finished.
+     */
+    public void clear() {
+        queue.clear();
+        handler.removeCallbacks(startNext);
+    }
+
+    private boolean enqueue(Loadable catalog, Post op, boolean first) {
+        Loadable loadable = databaseManager.getDatabaseLoadableManager().get(
+                Loadable.forThread(catalog.site, op.board, op.no));
+
+        Long time = prefetched.get(loadable);
+        if ((time != null && Time.get() - time < PREFETCH_INTERVAL) || queue.contains(loadable)) {
+            return false;
+        }
+
+        if (loadable.title == null || loadable.title.isEmpty()) {
+            loadable.title = PostHelper.getTitle(op, catalog);
+        }
+
+        if (first) {
+            queue.add(0, loadable);
+        } else {
+            queue.add(loadable);
+        }
+        while (queue.size() > MAX_QUEUED) {
+            queue.remove(queue.size() - 1);
+        }
+        return true;
+    }
+
+    private void schedule(long delay) {
+        handler.removeCallbacks(startNext);
+        handler.postDelayed(startNext, delay);
+    }
+
+    private void startNext() {
+        if (current != null || queue.isEmpty()) {
+            return;
+        }
+
+        if (!isEnabled() || !hasBudget()) {
+            Logger.d(TAG, "Prefetching stopped, " + queue.size() + " threads dropped");
+            queue.clear();
+            return;
+        }
+
+        Loadable loadable = queue.remove(0);
+        prefetched.put(loadable, Time.get());
+        removeExpired();
+
+        current = new Prefetch();
+        current.loader = chanLoaderFactory.obtain(loadable, current);
+        if (current.loader.getThread() != null || current.loader.isLoading()) {
+            // Already loaded or being loaded for someone else.
+            finish(current);
+        } else {
+            Logger.d(TAG, "Prefetching /" + loadable.boardCode + "/" + loadable.no);
+            current.started = true;
+            current.loader.requestInitialData();
+        }
+    }
+
+    private void finish(Prefetch prefetch) {
+        if (prefetch != current) {
+            return;
+        }
+
+        if (prefetch.started) {
+            // Loads of someone else are not paid from the prefetch budget.
+            budgetUsed += prefetch.loader.getLastResponseBytes();
+        }
+        chanLoaderFactory.release(prefetch.loader, prefetch);
+        current = null;
+        startNext();
+    }
+
+    private boolean hasBudget() {
+        long now = Time.get();
+        if (now - budgetWindowStart >= BUDGET_WINDOW) {
+            budgetWindowStart = now;
+            budgetUsed = 0;
+        }
+        return budgetUsed < BUDGET_BYTES;
+    }
+
+    private void removeExpired() {
+        long now = Time.get();
+        Iterator<Long> iterator = prefetched.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() >= PREFETCH_INTERVAL) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isEnabled() {
+        switch (ChanSettings.threadPrefetchNetwork.get()) {
+            case ALL:
+                return true;
+            case WIFI:
+                return isConnected(ConnectivityManager.TYPE_WIFI);
+            case NONE:
+            default:
+                return false;
+        }
+    }
+
+    private class Prefetch implements ChanThreadLoader.PrefetchChanLoaderCallback {
+        private ChanThreadLoader loader;
+        // If the prefetcher started the load, and not someone else.
+        private boolean started;
+
+        @Override
+        public void onChanLoaderData(ChanThread result) {
+            // Released later, the loader is still calling its listeners. A snapshot is delivered
+            // before the request that checks it is started, wait for that one too.
+            handler.post(() -> {
+                if (!loader.isLoading()) {
+                    finish(Prefetch.this);
+                }
+            });
+        }
+
+        @Override
+        public void onChanLoaderError(ChanLoaderException error) {
+            handler.post(() -> finish(Prefetch.this));
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.floens.chan.core.cache.FileCacheDownloader;
 import org.floens.chan.core.cache.FileCacheListener;
 import org.floens.chan.core.model.PostImage;
 import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.ui.view.MultiImageView;
 
@@ -249,7 +250,7 @@ public class ImageViewerPresenter implements MultiImageView.Callback, ViewPager.
                 // pass the filecachedownloader itself).
                 final FileCacheDownloader[] preloadDownload =
                         new FileCacheDownloader[1];
-                preloadDownload[0] = fileCache.downloadFile(fileUrl,
+                preloadDownload[0] = fileCache.downloadFile(fileUrl, RateLimiter.Priority.PREFETCH,
                         new FileCacheListener() {
                             @Override
                             public void onEnd() {
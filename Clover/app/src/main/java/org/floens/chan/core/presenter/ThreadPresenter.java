@@ -34,6 +34,7 @@ import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.model.orm.Pin;
 import org.floens.chan.core.model.orm.SavedReply;
 import org.floens.chan.core.pool.ChanLoaderFactory;
+import org.floens.chan.core.pool.ThreadPrefetcher;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.core.site.Site;
 import org.floens.chan.core.site.SiteActions;
@@ -81,6 +82,7 @@ public class ThreadPresenter implements ChanThreadLoader.ChanLoaderCallback, Pos
     private WatchManager watchManager;
     private DatabaseManager databaseManager;
     private ChanLoaderFactory chanLoaderFactory;
+    private ThreadPrefetcher threadPrefetcher;
 
     private Loadable loadable;
     private ChanThreadLoader chanLoader;
@@ -92,10 +94,12 @@ public class ThreadPresenter implements ChanThreadLoader.ChanLoaderCallback, Pos
     @Inject
     public ThreadPresenter(WatchManager watchManager,
                            DatabaseManager databaseManager,
-                           ChanLoaderFactory chanLoaderFactory) {
+                           ChanLoaderFactory chanLoaderFactory,
+                           ThreadPrefetcher threadPrefetcher) {
         this.watchManager = watchManager;
         this.databaseManager = databaseManager;
         this.chanLoaderFactory = chanLoaderFactory;
+        this.threadPrefetcher = threadPrefetcher;
     }
 
     public void create(ThreadPresenterCallback threadPresenterCallback) {
@@ -130,6 +134,9 @@ public class ThreadPresenter implements ChanThreadLoader.ChanLoaderCallback, Pos
 
     public void unbindLoadable() {
         if (chanLoader != null) {
+            if (loadable.isCatalogMode()) {
+                threadPrefetcher.clear();
+            }
             chanLoader.clearTimer();
             chanLoaderFactory.release(chanLoader, this);
             chanLoader = null;
@@ -147,7 +154,8 @@ public class ThreadPresenter implements ChanThreadLoader.ChanLoaderCallback, Pos
 
     public void requestInitialData() {
         if (chanLoader.getThread() == null) {
-            requestData();
+            threadPresenterCallback.showLoading();
+            chanLoader.requestInitialData();
         } else {
             chanLoader.quickLoad();
         }
@@ -286,6 +294,8 @@ public class ThreadPresenter implements ChanThreadLoader.ChanLoaderCallback, Pos
             if (more > 0) {
                 threadPresenterCallback.showNewPostsNotification(true, more);
             }
+        } else {
+            threadPrefetcher.onCatalogLoaded(result);
         }
 
         if (loadable.markedNo >= 0) {
@@ -450,6 +460,7 @@ public class ThreadPresenter implements ChanThreadLoader.ChanLoaderCallback, Pos
     public Object onPopulatePostOptions(Post post, List<FloatingMenuItem> menu,
                                         List<FloatingMenuItem> extraMenu) {
         if (!loadable.isThreadMode()) {
+            threadPrefetcher.onCatalogPostLongPressed(loadable, post);
             menu.add(new FloatingMenuItem(POST_OPTION_PIN, R.string.action_pin));
         } else {
             menu.add(new FloatingMenuItem(POST_OPTION_QUOTE, R.string.post_quote));
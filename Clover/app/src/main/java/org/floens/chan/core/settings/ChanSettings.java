@@ -100,6 +100,7 @@ public class ChanSettings {
     //    public static final BooleanSetting imageAutoLoad;
     public static final OptionsSetting<MediaAutoLoadMode> imageAutoLoadNetwork;
     public static final OptionsSetting<MediaAutoLoadMode> videoAutoLoadNetwork;
+    public static final OptionsSetting<MediaAutoLoadMode> threadPrefetchNetwork;
     public static final BooleanSetting videoOpenExternal;
     public static final BooleanSetting textOnly;
     public static final BooleanSetting videoErrorIgnore;
@@ -142,9 +143,13 @@ public class ChanSettings {
     public static final StringSetting watchSound;
     public static final BooleanSetting watchPeek;
     public static final StringSetting watchLed;
+    public static final StringSetting watchBackgroundPending;
 
     public static final BooleanSetting historyEnabled;
 
+    // Budget of the thread loader cache in megabytes, 0 to derive it from the memory class.
+    public static final IntegerSetting threadCacheBudget;
+
     public static final IntegerSetting previousVersion;
 
     public static final BooleanSetting proxyEnabled;
@@ -176,6 +181,7 @@ public class ChanSettings {
 //        imageAutoLoad = new BooleanSetting(p, "preference_image_auto_load", true);
         imageAutoLoadNetwork = new OptionsSetting<>(p, "preference_image_auto_load_network", MediaAutoLoadMode.class, MediaAutoLoadMode.WIFI);
         videoAutoLoadNetwork = new OptionsSetting<>(p, "preference_video_auto_load_network", MediaAutoLoadMode.class, MediaAutoLoadMode.WIFI);
+        threadPrefetchNetwork = new OptionsSetting<>(p, "preference_thread_prefetch_network", MediaAutoLoadMode.class, MediaAutoLoadMode.NONE);
         videoOpenExternal = new BooleanSetting(p, "preference_video_external", false);
         textOnly = new BooleanSetting(p, "preference_text_only", false);
         videoErrorIgnore = new BooleanSetting(p, "preference_video_error_ignore", false);
@@ -224,9 +230,14 @@ public class ChanSettings {
         watchSound = new StringSetting(p, "preference_watch_sound", "quotes");
         watchPeek = new BooleanSetting(p, "preference_watch_peek", true);
         watchLed = new StringSetting(p, "preference_watch_led", "ffffffff");
+        watchBackgroundPending = new StringSetting(p, "watch_background_pending", "");
 
         historyEnabled = new BooleanSetting(p, "preference_history_enabled", true);
 
+        threadCacheBudget = new IntegerSetting(p, "preference_thread_cache_budget", 0);
+        threadCacheBudget.addCallback((setting, value) ->
+                EventBus.getDefault().post(new SettingChanged<>(threadCacheBudget)));
+
         previousVersion = new IntegerSetting(p, "preference_previous_version", 0);
 
         proxyEnabled = new BooleanSetting(p, "preference_proxy_enabled", false);
@@ -35,6 +35,24 @@ public interface SiteEndpoints {
 
     HttpUrl thread(Board board, Loadable loadable);
 
+    /**
+     * The tail of a thread, the op followed by only the last posts of the thread, in the same
+     * format as {@link #thread(Board, Loadable)}. Used to refresh big threads that are already
+     * loaded.
+     *
+     * @return the url, or {@code null} if the site has no tail endpoint.
+     */
+    HttpUrl threadTail(Board board, Loadable loadable);
+
+    /**
+     * The threads index of a board, a json list of pages with the number and last modified time
+     * of every thread on the board, in the format of the 4chan threads.json. Used to check many
+     * watched threads of one board with a single request.
+     *
+     * @return the url, or {@code null} if the site has no threads index.
+     */
+    HttpUrl threadsIndex(Board board);
+
     HttpUrl imageUrl(Post.Builder post, Map<String, String> arg);
 
     HttpUrl thumbnailUrl(Post.Builder post, boolean spoiler, Map<String, String> arg);
@@ -352,6 +352,16 @@ public abstract class CommonSite extends SiteBase {
             return null;
         }
 
+        @Override
+        public HttpUrl threadTail(Board board, Loadable loadable) {
+            return null;
+        }
+
+        @Override
+        public HttpUrl threadsIndex(Board board) {
+            return null;
+        }
+
         @Override
         public HttpUrl boards() {
             return null;
@@ -21,17 +21,15 @@ package org.floens.chan.core.site.common;
 import android.support.annotation.AnyThread;
 import android.text.SpannableString;
 import android.text.TextUtils;
-import android.text.style.BackgroundColorSpan;
 
 import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.StyledText;
 import org.floens.chan.core.settings.ChanSettings;
 import org.floens.chan.core.site.parser.CommentParser;
 import org.floens.chan.core.site.parser.CommentParserHelper;
+import org.floens.chan.core.site.parser.HtmlTag;
+import org.floens.chan.core.site.parser.HtmlTokenizer;
 import org.floens.chan.core.site.parser.PostParser;
-import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
-import org.floens.chan.ui.span.ForegroundColorSpanHashed;
-import org.floens.chan.ui.theme.Theme;
-import org.floens.chan.ui.theme.ThemeHelper;
 import org.floens.chan.utils.Logger;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -43,8 +41,6 @@ import org.jsoup.parser.Parser;
 import java.util.ArrayList;
 import java.util.List;
 
-import static org.floens.chan.utils.AndroidUtils.sp;
-
 @AnyThread
 public class DefaultPostParser implements PostParser {
     private static final String TAG = "DefaultPostParser";
@@ -56,11 +52,7 @@ public class DefaultPostParser implements PostParser {
     }
 
     @Override
-    public Post parse(Theme theme, Post.Builder builder, Callback callback) {
-        if (theme == null) {
-            theme = ThemeHelper.getInstance().getTheme();
-        }
-
+    public Post parse(Post.Builder builder, Callback callback) {
         if (!TextUtils.isEmpty(builder.name)) {
             builder.name = Parser.unescapeEntities(builder.name, false);
         }
@@ -69,36 +61,42 @@ public class DefaultPostParser implements PostParser {
             builder.subject = Parser.unescapeEntities(builder.subject, false);
         }
 
-        parseSpans(theme, builder);
+        parseSpans(builder);
 
         if (builder.comment != null) {
-            builder.comment = parseComment(theme, builder, builder.comment, callback);
+            builder.styledComment(StyledText.fromSpanned(
+                    parseComment(builder, builder.comment, callback)));
         } else {
             builder.comment = "";
+            builder.styledComment(StyledText.EMPTY);
         }
 
         return builder.build();
     }
 
     /**
-     * Parse the comment, subject, tripcodes, names etc. as spannables.<br>
-     * This is done on a background thread for performance, even when it is UI code.<br>
-     * The results will be placed on the Post.*Span members.
+     * Parse the subject, tripcodes, names etc. as styled text.<br>
+     * This is done on a background thread for performance, the spans for the theme are created
+     * when the post is shown.<br>
+     * The results will be placed on the Post.styled* members.
      *
-     * @param theme   Theme to use for parsing
      * @param builder Post builder to get data from
      */
-    private void parseSpans(Theme theme, Post.Builder builder) {
+    private void parseSpans(Post.Builder builder) {
         boolean anonymize = ChanSettings.anonymize.get();
         boolean anonymizeIds = ChanSettings.anonymizeIds.get();
 
         final String defaultName = "Anonymous";
         if (anonymize) {
+            // The filters still match the real name.
+            builder.filterName = builder.name;
+            builder.filterTripcode = builder.tripcode;
             builder.name(defaultName);
             builder.tripcode("");
         }
 
         if (anonymizeIds) {
+            builder.filterPosterId = builder.posterId;
             builder.posterId("");
         }
 
@@ -108,25 +106,20 @@ public class DefaultPostParser implements PostParser {
         SpannableString idSpan = null;
         SpannableString capcodeSpan = null;
 
-        int detailsSizePx = sp(Integer.parseInt(ChanSettings.fontSize.get()) - 4);
-
         if (!TextUtils.isEmpty(builder.subject)) {
             subjectSpan = new SpannableString(builder.subject);
-            // Do not set another color when the post is in stub mode, it sets text_color_secondary
-            if (!builder.filterStub) {
-                subjectSpan.setSpan(new ForegroundColorSpanHashed(theme.subjectColor), 0, subjectSpan.length(), 0);
-            }
+            subjectSpan.setSpan(StyledText.span(StyledText.Style.COLOR_SUBJECT), 0, subjectSpan.length(), 0);
         }
 
         if (!TextUtils.isEmpty(builder.name) && (!builder.name.equals(defaultName) || ChanSettings.showAnonymousName.get())) {
             nameSpan = new SpannableString(builder.name);
-            nameSpan.setSpan(new ForegroundColorSpanHashed(theme.nameColor), 0, nameSpan.length(), 0);
+            nameSpan.setSpan(StyledText.span(StyledText.Style.COLOR_NAME), 0, nameSpan.length(), 0);
         }
 
         if (!TextUtils.isEmpty(builder.tripcode)) {
             tripcodeSpan = new SpannableString(builder.tripcode);
-            tripcodeSpan.setSpan(new ForegroundColorSpanHashed(theme.nameColor), 0, tripcodeSpan.length(), 0);
-            tripcodeSpan.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, tripcodeSpan.length(), 0);
+            tripcodeSpan.setSpan(StyledText.span(StyledText.Style.COLOR_NAME), 0, tripcodeSpan.length(), 0);
+            tripcodeSpan.setSpan(StyledText.span(StyledText.Style.DETAILS_SIZE), 0, tripcodeSpan.length(), 0);
         }
 
         if (!TextUtils.isEmpty(builder.posterId)) {
@@ -142,17 +135,16 @@ public class DefaultPostParser implements PostParser {
             //noinspection NumericOverflow
             int idColor = (0xff << 24) + (r << 16) + (g << 8) + b;
             boolean lightColor = (r * 0.299f) + (g * 0.587f) + (b * 0.114f) > 125f;
-            int idBgColor = lightColor ? theme.idBackgroundLight : theme.idBackgroundDark;
 
-            idSpan.setSpan(new ForegroundColorSpanHashed(idColor), 0, idSpan.length(), 0);
-            idSpan.setSpan(new BackgroundColorSpan(idBgColor), 0, idSpan.length(), 0);
-            idSpan.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, idSpan.length(), 0);
+            idSpan.setSpan(StyledText.span(StyledText.Style.COLOR, idColor), 0, idSpan.length(), 0);
+            idSpan.setSpan(StyledText.span(StyledText.Style.ID_BACKGROUND, lightColor), 0, idSpan.length(), 0);
+            idSpan.setSpan(StyledText.span(StyledText.Style.DETAILS_SIZE), 0, idSpan.length(), 0);
         }
 
         if (!TextUtils.isEmpty(builder.moderatorCapcode)) {
             capcodeSpan = new SpannableString("Capcode: " + builder.moderatorCapcode);
-            capcodeSpan.setSpan(new ForegroundColorSpanHashed(theme.capcodeColor), 0, capcodeSpan.length(), 0);
-            capcodeSpan.setSpan(new AbsoluteSizeSpanHashed(detailsSizePx), 0, capcodeSpan.length(), 0);
+            capcodeSpan.setSpan(StyledText.span(StyledText.Style.COLOR_CAPCODE), 0, capcodeSpan.length(), 0);
+            capcodeSpan.setSpan(StyledText.span(StyledText.Style.DETAILS_SIZE), 0, capcodeSpan.length(), 0);
         }
 
         CharSequence nameTripcodeIdCapcodeSpan = new SpannableString("");
@@ -172,22 +164,31 @@ public class DefaultPostParser implements PostParser {
             nameTripcodeIdCapcodeSpan = TextUtils.concat(nameTripcodeIdCapcodeSpan, capcodeSpan, " ");
         }
 
-        builder.spans(subjectSpan, nameTripcodeIdCapcodeSpan);
+        builder.spans(subjectSpan == null ? null : StyledText.fromSpanned(subjectSpan),
+                StyledText.fromSpanned(nameTripcodeIdCapcodeSpan));
     }
 
-    private CharSequence parseComment(Theme theme, Post.Builder post, CharSequence commentRaw, Callback callback) {
+    private CharSequence parseComment(Post.Builder post, CharSequence commentRaw, Callback callback) {
         CharSequence total = new SpannableString("");
 
         try {
             String comment = commentRaw.toString().replace("<wbr>", "");
 
+            HtmlTokenizer tokenizer = new HtmlTokenizer(comment);
+            if (tokenizer.tokenize()) {
+                StreamingComment streamingComment = new StreamingComment(post, callback);
+                tokenizer.walk(streamingComment);
+                return streamingComment.finish();
+            }
+
+            // Broken html, let Jsoup fix it the way a browser would.
             Document document = Jsoup.parseBodyFragment(comment);
 
             List<Node> nodes = document.body().childNodes();
             List<CharSequence> texts = new ArrayList<>(nodes.size());
 
             for (Node node : nodes) {
-                CharSequence nodeParsed = parseNode(theme, post, callback, node);
+                CharSequence nodeParsed = parseNode(post, callback, node);
                 if (nodeParsed != null) {
                     texts.add(nodeParsed);
                 }
@@ -201,12 +202,12 @@ public class DefaultPostParser implements PostParser {
         return total;
     }
 
-    private CharSequence parseNode(Theme theme, Post.Builder post, Callback callback, Node node) {
+    private CharSequence parseNode(Post.Builder post, Callback callback, Node node) {
         if (node instanceof TextNode) {
             String text = ((TextNode) node).text();
             SpannableString spannable = new SpannableString(text);
 
-            CommentParserHelper.detectLinks(theme, post, text, spannable);
+            CommentParserHelper.detectLinks(post, text, spannable);
 
             return spannable;
         } else if (node instanceof Element) {
@@ -217,7 +218,7 @@ public class DefaultPostParser implements PostParser {
             List<CharSequence> texts = new ArrayList<>(innerNodes.size() + 1);
 
             for (Node innerNode : innerNodes) {
-                CharSequence nodeParsed = parseNode(theme, post, callback, innerNode);
+                CharSequence nodeParsed = parseNode(post, callback, innerNode);
                 if (nodeParsed != null) {
                     texts.add(nodeParsed);
                 }
@@ -232,11 +233,10 @@ public class DefaultPostParser implements PostParser {
 
             CharSequence result = commentParser.handleTag(
                     callback,
-                    theme,
                     post,
                     nodeName,
                     allInnerText,
-                    (Element) node);
+                    new HtmlTag.JsoupTag((Element) node));
             if (result != null) {
                 return result;
             } else {
@@ -246,4 +246,61 @@ public class DefaultPostParser implements PostParser {
             return ""; // ?
         }
     }
+
+    /**
+     * Builds the comment from the events of the {@link HtmlTokenizer}, the same as
+     * {@link #parseNode(Post.Builder, Callback, Node)} does for the Jsoup DOM. Every open element
+     * has a list of the texts of its children, the tag is handled when the element closes.
+     */
+    private class StreamingComment implements HtmlTokenizer.Handler {
+        private final Post.Builder post;
+        private final Callback callback;
+        private final List<List<CharSequence>> open = new ArrayList<>();
+
+        private StreamingComment(Post.Builder post, Callback callback) {
+            this.post = post;
+            this.callback = callback;
+            open.add(new ArrayList<CharSequence>());
+        }
+
+        @Override
+        public void onStartTag(HtmlTag tag) {
+            open.add(new ArrayList<CharSequence>(2));
+        }
+
+        @Override
+        public void onEndTag(HtmlTag tag) {
+            List<CharSequence> texts = open.remove(open.size() - 1);
+            CharSequence allInnerText = concat(texts);
+
+            CharSequence result = commentParser.handleTag(
+                    callback,
+                    post,
+                    tag.tagName(),
+                    allInnerText,
+                    tag);
+            current().add(result != null ? result : allInnerText);
+        }
+
+        @Override
+        public void onText(String text) {
+            SpannableString spannable = new SpannableString(text);
+
+            CommentParserHelper.detectLinks(post, text, spannable);
+
+            current().add(spannable);
+        }
+
+        private CharSequence finish() {
+            return concat(open.get(0));
+        }
+
+        private List<CharSequence> current() {
+            return open.get(open.size() - 1);
+        }
+
+        private CharSequence concat(List<CharSequence> texts) {
+            return TextUtils.concat(texts.toArray(new CharSequence[texts.size()]));
+        }
+    }
 }
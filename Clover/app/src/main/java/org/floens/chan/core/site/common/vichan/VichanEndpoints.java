@@ -47,6 +47,11 @@ public class VichanEndpoints extends CommonSite.CommonEndpoints {
         return root.builder().s(board.code).s("res").s(loadable.no + ".json").url();
     }
 
+    @Override
+    public HttpUrl threadsIndex(Board board) {
+        return root.builder().s(board.code).s("threads.json").url();
+    }
+
     @Override
     public HttpUrl thumbnailUrl(Post.Builder post, boolean spoiler, Map<String, String> arg) {
         return root.builder().s(post.board.code).s("thumb").s(arg.get("tim") + ".png").url();
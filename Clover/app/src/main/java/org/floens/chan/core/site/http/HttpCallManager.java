@@ -19,6 +19,7 @@ package org.floens.chan.core.site.http;
 
 
 import org.floens.chan.core.di.UserAgentProvider;
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.site.Site;
 import org.floens.chan.core.site.SiteRequestModifier;
 
@@ -41,9 +42,9 @@ public class HttpCallManager {
     private OkHttpClient client;
 
     @Inject
-    public HttpCallManager(UserAgentProvider userAgentProvider) {
+    public HttpCallManager(UserAgentProvider userAgentProvider, OkHttpClient okHttpClient) {
         this.userAgentProvider = userAgentProvider;
-        client = new OkHttpClient.Builder()
+        client = okHttpClient.newBuilder()
                 .connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
                 .readTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
                 .writeTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
@@ -66,6 +67,9 @@ public class HttpCallManager {
         }
 
         requestBuilder.header("User-Agent", userAgentProvider.getUserAgent());
+        if (site != null) {
+            requestBuilder.tag(new RateLimiter.Tag(site, RateLimiter.Priority.FOREGROUND));
+        }
         Request request = requestBuilder.build();
 
         client.newCall(request).enqueue(httpCall);
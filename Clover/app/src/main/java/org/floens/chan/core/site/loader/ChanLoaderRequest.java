@@ -22,12 +22,36 @@ import com.android.volley.Request;
 
 public class ChanLoaderRequest {
     private Request<ChanLoaderResponse> volleyRequest;
+    private Runnable cancel;
 
     public ChanLoaderRequest(Request<ChanLoaderResponse> volleyRequest) {
+        this(volleyRequest, null);
+    }
+
+    /**
+     * A request shared with other loaders, see {@link ChanLoaderRequestCoalescer}.
+     *
+     * @param volleyRequest the shared request, or {@code null} when a shared result is delivered.
+     * @param cancel        removes this loader from the shared request.
+     */
+    public ChanLoaderRequest(Request<ChanLoaderResponse> volleyRequest, Runnable cancel) {
         this.volleyRequest = volleyRequest;
+        this.cancel = cancel;
     }
 
     public Request<ChanLoaderResponse> getVolleyRequest() {
         return volleyRequest;
     }
+
+    /**
+     * Stop delivering the response to the loader. A request that is shared keeps running for
+     * the other loaders.
+     */
+    public void cancel() {
+        if (cancel != null) {
+            cancel.run();
+        } else {
+            volleyRequest.cancel();
+        }
+    }
 }
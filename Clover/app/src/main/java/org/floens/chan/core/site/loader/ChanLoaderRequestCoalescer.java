@@ -0,0 +1,179 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.floens.chan.core.net.RateLimiter;
+import org.floens.chan.core.site.parser.ChanReaderRequest;
+import org.floens.chan.utils.Logger;
+import org.floens.chan.utils.Time;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Shares the requests of {@link ChanThreadLoader}s that load the same url.<br>
+ * Requests that do not depend on the state of their loader, catalogs and first loads, are
+ * keyed by their url. A loader asking for a url that is already being loaded joins that request
+ * instead of starting its own download and parse. Catalog results are also handed out for
+ * {@link #SHARED_RESULT_TIME} after they arrive, for when the same board is opened twice in a row.
+ * Only first loads get such a result, see {@link ChanLoaderRequestParams#allowSharedResult}, an
+ * explicit reload is never answered with an older response.
+ * <p>
+ * Thread loaders are already shared per loadable by the ChanLoaderFactory, and their later
+ * requests depend on the posts they have, those are never shared.
+ */
+@Singleton
+public class ChanLoaderRequestCoalescer {
+    private static final String TAG = "ChanLoaderRequestCoalescer";
+    private static final long SHARED_RESULT_TIME = 5 * 1000;
+
+    private final RequestQueue volleyRequestQueue;
+    private final RateLimiter rateLimiter;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, SharedRequest> running = new HashMap<>();
+    private final Map<String, SharedResult> results = new HashMap<>();
+
+    @Inject
+    public ChanLoaderRequestCoalescer(RequestQueue volleyRequestQueue, RateLimiter rateLimiter) {
+        this.volleyRequestQueue = volleyRequestQueue;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @MainThread
+    public ChanLoaderRequest request(final ChanLoaderRequestParams params) {
+        boolean shareable = params.cached.isEmpty() && params.cachedByNo == null &&
+                params.ifModifiedSince == null && params.ifNoneMatch == null;
+        if (!shareable) {
+            ChanReaderRequest readerRequest = new ChanReaderRequest(params);
+            rateLimiter.add(volleyRequestQueue, readerRequest);
+            return new ChanLoaderRequest(readerRequest);
+        }
+
+        final String url = ChanReaderRequest.getChanUrl(params.loadable).toString();
+
+        removeExpiredResults();
+        final SharedResult result = params.allowSharedResult ? results.get(url) : null;
+        if (result != null) {
+            Logger.d(TAG, "Sharing the result of " + url);
+            // Delivered later, the loader expects the response after this method returns.
+            final Runnable deliver = () -> params.listener.onResponse(result.response);
+            handler.post(deliver);
+            return new ChanLoaderRequest(null, () -> handler.removeCallbacks(deliver));
+        }
+
+        SharedRequest sharedRequest = running.get(url);
+        if (sharedRequest == null) {
+            sharedRequest = new SharedRequest(url, params);
+            running.put(url, sharedRequest);
+            rateLimiter.add(volleyRequestQueue, sharedRequest.readerRequest);
+        } else {
+            Logger.d(TAG, "Joining the running request of " + url);
+            sharedRequest.consumers.add(params);
+        }
+
+        final SharedRequest joined = sharedRequest;
+        return new ChanLoaderRequest(joined.readerRequest, () -> joined.cancel(params));
+    }
+
+    private void removeExpiredResults() {
+        long now = Time.get();
+        Iterator<SharedResult> iterator = results.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().time >= SHARED_RESULT_TIME) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private class SharedRequest implements Response.Listener<ChanLoaderResponse>, Response.ErrorListener {
+        private final String url;
+        private final boolean catalog;
+        private final List<ChanLoaderRequestParams> consumers = new ArrayList<>();
+        private final ChanReaderRequest readerRequest;
+
+        private SharedRequest(String url, ChanLoaderRequestParams params) {
+            this.url = url;
+            catalog = params.loadable.isCatalogMode();
+            consumers.add(params);
+
+            readerRequest = new ChanReaderRequest(new ChanLoaderRequestParams(
+                    params.loadable, params.chanReader, params.cached, params.cachedByNo,
+                    params.ifModifiedSince, params.ifNoneMatch, params.tail, params.priority,
+                    params.allowSharedResult, this, this));
+        }
+
+        private void cancel(ChanLoaderRequestParams params) {
+            consumers.remove(params);
+            if (consumers.isEmpty()) {
+                readerRequest.cancel();
+                running.remove(url);
+            }
+        }
+
+        @Override
+        public void onResponse(ChanLoaderResponse response) {
+            running.remove(url);
+            if (catalog) {
+                results.put(url, new SharedResult(response, Time.get()));
+            }
+
+            // Copy, the listeners may start new requests.
+            List<ChanLoaderRequestParams> toDeliver = new ArrayList<>(consumers);
+            consumers.clear();
+            for (int i = 0; i < toDeliver.size(); i++) {
+                toDeliver.get(i).listener.onResponse(response);
+            }
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            running.remove(url);
+
+            List<ChanLoaderRequestParams> toDeliver = new ArrayList<>(consumers);
+            consumers.clear();
+            for (int i = 0; i < toDeliver.size(); i++) {
+                toDeliver.get(i).errorListener.onErrorResponse(error);
+            }
+        }
+    }
+
+    private static class SharedResult {
+        private final ChanLoaderResponse response;
+        private final long time;
+
+        private SharedResult(ChanLoaderResponse response, long time) {
+            this.response = response;
+            this.time = time;
+        }
+    }
+}
@@ -22,9 +22,11 @@ import com.android.volley.Response;
 
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.site.parser.ChanReader;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * A request from ChanThreadLoader to load something.
@@ -42,6 +44,42 @@ public class ChanLoaderRequestParams {
      */
     public final List<Post> cached;
 
+    /**
+     * Index of the cached posts by number, from the loaded {@link org.floens.chan.core.model.ChanThread},
+     * or {@code null} when there is no thread loaded yet.
+     */
+    public final Map<Integer, Post> cachedByNo;
+
+    /**
+     * Value of the Last-Modified header of the previous load, sent as If-Modified-Since, or
+     * {@code null} to do an unconditional request.
+     */
+    public final String ifModifiedSince;
+
+    /**
+     * Value of the ETag header of the previous load, sent as If-None-Match, or {@code null}.
+     */
+    public final String ifNoneMatch;
+
+    /**
+     * Load only the tail of the thread, see {@link org.floens.chan.core.site.SiteEndpoints#threadTail}.
+     * Only for thread loads with cached posts.
+     */
+    public final boolean tail;
+
+    /**
+     * {@link RateLimiter.Priority#FOREGROUND} if the user is waiting on this load. Background
+     * loads are queued and parsed after foreground loads, prefetches go last.
+     */
+    public final RateLimiter.Priority priority;
+
+    /**
+     * {@code true} for the first load of a loader that was just obtained, which may be answered
+     * with the result of a load of the same url that finished moments ago. Reloads always ask
+     * the server.
+     */
+    public final boolean allowSharedResult;
+
     /**
      * Success listener.
      */
@@ -55,12 +93,24 @@ public class ChanLoaderRequestParams {
     public ChanLoaderRequestParams(Loadable loadable,
                                    ChanReader chanReader,
                                    List<Post> cached,
+                                   Map<Integer, Post> cachedByNo,
+                                   String ifModifiedSince,
+                                   String ifNoneMatch,
+                                   boolean tail,
+                                   RateLimiter.Priority priority,
+                                   boolean allowSharedResult,
                                    Response.Listener<ChanLoaderResponse> listener,
                                    Response.ErrorListener errorListener) {
 
         this.loadable = loadable;
         this.chanReader = chanReader;
         this.cached = cached;
+        this.cachedByNo = cachedByNo;
+        this.ifModifiedSince = ifModifiedSince;
+        this.ifNoneMatch = ifNoneMatch;
+        this.tail = tail;
+        this.priority = priority;
+        this.allowSharedResult = allowSharedResult;
         this.listener = listener;
         this.errorListener = errorListener;
     }
@@ -19,6 +19,8 @@ package org.floens.chan.core.site.loader;
 
 import org.floens.chan.core.model.Post;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ChanLoaderResponse {
@@ -27,8 +29,66 @@ public class ChanLoaderResponse {
     public final Post.Builder op;
     public final List<Post> posts;
 
-    public ChanLoaderResponse(Post.Builder op, List<Post> posts) {
+    /**
+     * The posts in {@code posts} that were not in the cached list, in order.
+     */
+    public final List<Post> newPosts;
+
+    /**
+     * Cached posts that are now deleted, or that were deleted and are back.
+     */
+    public final List<Post> deletedChanged = new ArrayList<>();
+
+    /**
+     * Cached posts that got replies from the new posts.
+     */
+    public final List<Post> repliesChanged = new ArrayList<>();
+
+    /**
+     * The server responded with 304 Not Modified, {@code op} and {@code posts} are empty and the
+     * cached thread is still up to date.
+     */
+    public final boolean notModified;
+
+    /**
+     * The tail that was requested does not reach back to the cached posts, posts between them are
+     * missing. {@code op} and {@code posts} are empty, the thread needs a full load.
+     */
+    public final boolean incompleteTail;
+
+    // Validators from the response headers, sent back with the next conditional request.
+    public String lastModified;
+    public String etag;
+
+    /**
+     * Size of the response body in bytes.
+     */
+    public long responseBytes;
+
+    /**
+     * The {@link org.floens.chan.core.manager.FilterSnapshot#version} of the filters the new posts
+     * were filtered with.
+     */
+    public int filterVersion;
+
+    public ChanLoaderResponse(Post.Builder op, List<Post> posts, List<Post> newPosts) {
+        this(op, posts, newPosts, false, false);
+    }
+
+    private ChanLoaderResponse(Post.Builder op, List<Post> posts, List<Post> newPosts,
+                               boolean notModified, boolean incompleteTail) {
         this.op = op;
         this.posts = posts;
+        this.newPosts = newPosts;
+        this.notModified = notModified;
+        this.incompleteTail = incompleteTail;
+    }
+
+    public static ChanLoaderResponse notModified() {
+        return new ChanLoaderResponse(null, Collections.<Post>emptyList(), Collections.<Post>emptyList(), true, false);
+    }
+
+    public static ChanLoaderResponse incompleteTail() {
+        return new ChanLoaderResponse(null, Collections.<Post>emptyList(), Collections.<Post>emptyList(), false, true);
     }
 }
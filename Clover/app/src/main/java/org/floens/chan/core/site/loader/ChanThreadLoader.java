@@ -19,24 +19,37 @@ package org.floens.chan.core.site.loader;
 
 import android.text.TextUtils;
 
-import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
 
+import org.floens.chan.core.cache.ThreadSnapshotStore;
 import org.floens.chan.core.exception.ChanLoaderException;
+import org.floens.chan.core.manager.CompiledFilters;
+import org.floens.chan.core.manager.FilterEngine;
+import org.floens.chan.core.manager.FilterSnapshot;
 import org.floens.chan.core.model.ChanThread;
+import org.floens.chan.core.model.ChanThreadDelta;
 import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Filter;
 import org.floens.chan.core.model.orm.Loadable;
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.site.parser.ChanReader;
-import org.floens.chan.core.site.parser.ChanReaderRequest;
+import org.floens.chan.core.site.parser.PostParseScheduler;
 import org.floens.chan.ui.helper.PostHelper;
 import org.floens.chan.utils.AndroidUtils;
 import org.floens.chan.utils.Logger;
 import org.floens.chan.utils.Time;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -50,28 +63,76 @@ import static org.floens.chan.Chan.inject;
  * <p>Obtain ChanLoaders with {@link org.floens.chan.core.pool.ChanLoaderFactory}.
  * <p>ChanLoaders can load boards and threads, and return {@link ChanThread} objects on success, through
  * {@link ChanLoaderCallback}.
- * <p>For threads timers can be started with {@link #setTimer()} to do a request later.
+ * <p>For threads timers can be started with {@link #setTimer()} to do a request later, at the time
+ * the {@link RefreshPredictor} expects a new post.
+ * <p>Threads are first shown from their {@link ThreadSnapshotStore} snapshot when there is one,
+ * the request to the server then only needs to load what changed since the snapshot. Only the
+ * first load uses the snapshot, see {@link #requestInitialData()}, a reload asks the server for
+ * everything.
+ * <p>When the filters change they are applied again to the loaded posts, see
+ * {@link #onFiltersChanged(FilterEngine.FiltersChangedMessage)}.
  */
 public class ChanThreadLoader implements Response.ErrorListener, Response.Listener<ChanLoaderResponse> {
     private static final String TAG = "ChanThreadLoader";
     private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Waits on the filter matching of reapplyFilters, apart from the timers on the executor.
+    private static final ExecutorService filterExecutor = Executors.newSingleThreadExecutor();
+    // Minimum time between snapshot writes of a thread that keeps changing.
+    private static final long SNAPSHOT_INTERVAL = 60 * 1000;
+    // Threads with at least this many posts are refreshed with only their tail, when the site has
+    // a tail endpoint. The 4chan tail has the last 50 posts.
+    private static final int TAIL_MIN_POSTS = 100;
+    // The posts before the tail are not checked for deletions, do a full load this often.
+    private static final long FULL_LOAD_INTERVAL = 5 * 60 * 1000;
 
-    private static final int[] WATCH_TIMEOUTS = {10, 15, 20, 30, 60, 90, 120, 180, 240, 300, 600, 1800, 3600};
+    @Inject
+    ThreadSnapshotStore threadSnapshotStore;
+
+    @Inject
+    ChanLoaderRequestCoalescer requestCoalescer;
 
     @Inject
-    RequestQueue volleyRequestQueue;
+    FilterEngine filterEngine;
 
     private final List<ChanLoaderCallback> listeners = new ArrayList<>();
     private final Loadable loadable;
     private ChanThread thread;
 
     private ChanLoaderRequest request;
+    // Incremented for every snapshot read, to ignore the results of reads that were cancelled.
+    private int snapshotGeneration;
+    private boolean loadingSnapshot;
+    // Set by requestInitialData() until the request is made, see allowSharedResult.
+    private boolean initialLoad;
 
-    private int currentTimeout = 0;
-    private int lastPostCount;
+    private final RefreshPredictor refreshPredictor = new RefreshPredictor();
     private long lastLoadTime;
     private ScheduledFuture<?> pendingFuture;
 
+    // Estimated memory of the thread, measured when the loader goes into the factory cache.
+    private int retainedBytes;
+
+    // The thread changed since the last snapshot write.
+    private boolean snapshotDirty;
+    private long lastSnapshotTime;
+
+    // Size of the response body of the last load, zero when it was not modified.
+    private long lastResponseBytes;
+
+    // If the running request is a tail request, and the time of the last full load.
+    private boolean loadingTail;
+    private long lastFullLoadTime;
+
+    // Filter changes that happened while loading, the load used the filters from before.
+    private final List<FilterEngine.FiltersChangedMessage> pendingFilterChanges = new ArrayList<>();
+    // The FilterSnapshot version that all posts of the thread are filtered with, changes up to
+    // this version don't need to be applied again.
+    private int filteredVersion;
+
+    // Validators of the last successful thread load, used for conditional requests.
+    private String lastModified;
+    private String etag;
+
     /**
      * <b>Do not call this constructor yourself, obtain ChanLoaders through {@link org.floens.chan.core.pool.ChanLoaderFactory}</b>
      */
@@ -104,8 +165,9 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         listeners.remove(listener);
         if (listeners.isEmpty()) {
             clearTimer();
+            cancelSnapshotLoad();
             if (request != null) {
-                request.getVolleyRequest().cancel();
+                request.cancel();
                 request = null;
             }
             return true;
@@ -119,13 +181,28 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
     }
 
     /**
-     * Request data for the first time.
+     * Request data for the first time, a thread is shown from its snapshot first when there is one.
+     * A catalog can be answered with the result of a load of the same board that just finished,
+     * see {@link ChanLoaderRequestCoalescer}.
+     */
+    public void requestInitialData() {
+        requestData(true);
+    }
+
+    /**
+     * Reload the data from the server, without the snapshot. The reload is explicit, the user
+     * expects the posts to be parsed and filtered again.
      */
     public void requestData() {
+        requestData(false);
+    }
+
+    private void requestData(boolean initial) {
         clearTimer();
+        initialLoad = initial;
 
         if (request != null) {
-            request.getVolleyRequest().cancel();
+            request.cancel();
             // request = null;
         }
 
@@ -135,10 +212,18 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
             loadable.listViewTop = 0;
         }
 
-        currentTimeout = -1;
+        refreshPredictor.reset();
+        lastLoadTime = 0;
         thread = null;
+        lastModified = null;
+        etag = null;
 
-        request = getData();
+        cancelSnapshotLoad();
+        if (loadable.isThreadMode() && initial) {
+            loadSnapshot();
+        } else {
+            request = getData();
+        }
     }
 
     /**
@@ -150,7 +235,7 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
     public boolean requestMoreData() {
         clearPendingRunnable();
 
-        if (loadable.isThreadMode() && request == null) {
+        if (loadable.isThreadMode() && request == null && !loadingSnapshot) {
             request = getData();
             return true;
         } else {
@@ -165,6 +250,23 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         return getTimeUntilLoadMore() < 0L && requestMoreData();
     }
 
+    /**
+     * Handle the thread as not modified without asking the server, for when another source like
+     * the threads index of the board already shows that it did not change.
+     *
+     * @return {@code true} if the loaded thread was marked, {@code false} if there is no loaded
+     * thread or a load is already running.
+     */
+    public boolean markUnchanged() {
+        if (thread == null || isLoading() || !loadable.isThreadMode()) {
+            return false;
+        }
+
+        clearPendingRunnable();
+        onNotModified();
+        return true;
+    }
+
     public void quickLoad() {
         if (thread == null) {
             throw new IllegalStateException("Cannot quick load without already loaded thread");
@@ -178,7 +280,8 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
     }
 
     /**
-     * Request more data and reset the watch timer.
+     * Request more data and reset the watch timer, the refreshes back off from the shortest
+     * interval again after this.
      */
     public void requestMoreDataAndResetTimer() {
         if (request == null) {
@@ -188,18 +291,56 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
     }
 
     public boolean isLoading() {
-        return request != null;
+        return request != null || loadingSnapshot;
     }
 
     public Loadable getLoadable() {
         return loadable;
     }
 
+    /**
+     * Write the loaded thread to the {@link ThreadSnapshotStore} if it changed since the last
+     * write, so that it can be restored after this loader is dropped. Loads write at most once
+     * every {@link #SNAPSHOT_INTERVAL} by themselves.
+     */
+    public void saveSnapshot() {
+        if (snapshotDirty && thread != null) {
+            snapshotDirty = false;
+            lastSnapshotTime = Time.get();
+            threadSnapshotStore.save(thread, lastModified, etag);
+        }
+    }
+
+    /**
+     * Estimate the memory of the loaded thread again, the result is returned by
+     * {@link #getRetainedBytes()} until the next measurement.
+     */
+    public void measureRetainedBytes() {
+        retainedBytes = thread == null ? 0 : thread.estimateRetainedBytes();
+    }
+
+    public int getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * The size of the response body of the last load in bytes, for keeping track of the data
+     * used by background loads.
+     */
+    public long getLastResponseBytes() {
+        return lastResponseBytes;
+    }
+
     public void setTimer() {
         clearPendingRunnable();
 
-        int watchTimeout = WATCH_TIMEOUTS[currentTimeout];
-        Logger.d(TAG, "Scheduled reload in " + watchTimeout + "s");
+        if (refreshPredictor.isStopped()) {
+            Logger.d(TAG, "Not scheduling a reload, " + getRefreshSummary());
+            return;
+        }
+
+        long timeout = Math.max(0L, getTimeUntilLoadMore());
+        Logger.d(TAG, "Scheduled reload in " + (timeout / 1000L) + "s, " + getRefreshSummary());
 
         pendingFuture = executor.schedule(new Runnable() {
             @Override
@@ -212,51 +353,167 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
                     }
                 });
             }
-        }, watchTimeout, TimeUnit.SECONDS);
+        }, timeout, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Clear the pending timer and let the refreshes back off from the shortest interval again.
+     */
     public void clearTimer() {
-        currentTimeout = 0;
         clearPendingRunnable();
+        refreshPredictor.onUserActivity(Time.get());
     }
 
     /**
-     * Get the time in milliseconds until another loadMore is recommended
+     * Get the time in milliseconds until another loadMore is recommended, at most
+     * {@link RefreshPredictor#FOREGROUND_MAX_INTERVAL} after the last load while the thread is
+     * shown.
      */
     public long getTimeUntilLoadMore() {
-        if (request != null) {
+        if (isLoading()) {
             return 0L;
         } else {
-            long waitTime = WATCH_TIMEOUTS[Math.max(0, currentTimeout)] * 1000L;
-            return lastLoadTime + waitTime - Time.get();
+            boolean foreground = getPriority() == RateLimiter.Priority.FOREGROUND;
+            return lastLoadTime + refreshPredictor.getInterval(foreground) - Time.get();
+        }
+    }
+
+    /**
+     * A description of the predicted posting rate and refresh interval, for debugging.
+     */
+    public String getRefreshSummary() {
+        return "/" + loadable.boardCode + "/" + loadable.no + ": " + refreshPredictor.getSummary();
+    }
+
+    private void loadSnapshot() {
+        loadingSnapshot = true;
+        final int generation = ++snapshotGeneration;
+        // The filters are applied again to the restored posts, they could have changed since.
+        FilterSnapshot filterSnapshot = filterEngine.getSnapshot();
+        final int filterVersion = filterSnapshot.version;
+        threadSnapshotStore.load(loadable, filterSnapshot.forBoard(loadable.board), snapshot -> {
+            if (generation != snapshotGeneration) {
+                return;
+            }
+            loadingSnapshot = false;
+
+            if (snapshot != null && thread == null) {
+                filteredVersion = filterVersion;
+                onSnapshotLoaded(snapshot);
+            }
+
+            request = getData();
+        });
+    }
+
+    private void cancelSnapshotLoad() {
+        snapshotGeneration++;
+        loadingSnapshot = false;
+    }
+
+    /**
+     * Show the thread from the snapshot, and use its validators so the following request only
+     * returns something when the thread changed since.
+     */
+    private void onSnapshotLoaded(ThreadSnapshotStore.Snapshot snapshot) {
+        Logger.d(TAG, "Loaded snapshot of " + loadable.boardCode + ", " + loadable.no +
+                " with " + snapshot.thread.posts.size() + " posts");
+
+        thread = snapshot.thread;
+        thread.loadable = loadable;
+        thread.revision++;
+        thread.delta = null;
+
+        lastModified = snapshot.lastModified;
+        etag = snapshot.etag;
+
+        if (TextUtils.isEmpty(loadable.title)) {
+            loadable.setTitle(PostHelper.getTitle(thread.op, loadable));
+        }
+
+        for (Post post : thread.posts) {
+            post.setTitle(loadable.title);
+        }
+
+        refreshPredictor.onLoaded(thread, Time.get(), getServerTime());
+
+        for (ChanLoaderCallback l : listeners) {
+            l.onChanLoaderData(thread);
         }
     }
 
     private ChanLoaderRequest getData() {
-        Logger.d(TAG, "Requested " + loadable.boardCode + ", " + loadable.no);
+        return getData(canLoadTail());
+    }
+
+    private ChanLoaderRequest getData(boolean tail) {
+        Logger.d(TAG, "Requested " + loadable.boardCode + ", " + loadable.no + (tail ? " tail" : ""));
 
         List<Post> cached = thread == null ? new ArrayList<Post>() : thread.posts;
+        Map<Integer, Post> cachedByNo = thread == null ? null : thread.postsByNo;
 
         ChanReader chanReader = loadable.getSite().chanReader();
 
-        ChanLoaderRequestParams requestParams = new ChanLoaderRequestParams(loadable, chanReader, cached, this, this);
-        ChanReaderRequest readerRequest = new ChanReaderRequest(requestParams);
-        request = new ChanLoaderRequest(readerRequest);
+        // Only ask the server if anything changed when there is a thread to fall back on.
+        boolean conditional = thread != null && loadable.isThreadMode();
+        String ifModifiedSince = conditional ? lastModified : null;
+        // The etag is of the full thread, the tail has its own.
+        String ifNoneMatch = conditional && !tail ? etag : null;
 
-        volleyRequestQueue.add(request.getVolleyRequest());
+        // Only the first load of a loader may get the result of another loader, not reloads.
+        boolean allowSharedResult = initialLoad;
+        initialLoad = false;
+
+        loadingTail = tail;
+        ChanLoaderRequestParams requestParams = new ChanLoaderRequestParams(
+                loadable, chanReader, cached, cachedByNo, ifModifiedSince, ifNoneMatch,
+                tail, getPriority(), allowSharedResult, this, this);
+        request = requestCoalescer.request(requestParams);
 
         return request;
     }
 
+    /**
+     * Refresh big threads with only the tail, unless the older posts were not checked in a while.
+     */
+    private boolean canLoadTail() {
+        return thread != null && loadable.isThreadMode() &&
+                thread.posts.size() >= TAIL_MIN_POSTS &&
+                Time.get() - lastFullLoadTime < FULL_LOAD_INTERVAL &&
+                loadable.site.endpoints().threadTail(loadable.board, loadable) != null;
+    }
+
     @Override
     public void onResponse(ChanLoaderResponse response) {
         request = null;
+        lastResponseBytes = response.responseBytes;
+
+        if (response.incompleteTail) {
+            Logger.d(TAG, "Tail of " + loadable.boardCode + ", " + loadable.no +
+                    " does not overlap, loading the full thread");
+            request = getData(false);
+            return;
+        }
+
+        if (!loadingTail) {
+            lastFullLoadTime = Time.get();
+        }
+
+        if (response.notModified && thread != null) {
+            onNotModified();
+            return;
+        }
 
         if (response.posts.isEmpty()) {
             onErrorResponse(new VolleyError("Post size is 0"));
             return;
         }
 
+        boolean incremental = thread != null && loadable.isThreadMode();
+        if (!incremental) {
+            // All posts are new, the cached posts of an incremental load keep their version.
+            filteredVersion = response.filterVersion;
+        }
         if (thread == null) {
             thread = new ChanThread(loadable, new ArrayList<Post>());
         }
@@ -264,6 +521,12 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         thread.posts.clear();
         thread.posts.addAll(response.posts);
 
+        if (loadable.isThreadMode()) {
+            for (Post newPost : response.newPosts) {
+                thread.postsByNo.put(newPost.no, newPost);
+            }
+        }
+
         processResponse(response);
 
         if (TextUtils.isEmpty(loadable.title)) {
@@ -274,19 +537,48 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
             post.setTitle(loadable.title);
         }
 
+        thread.revision++;
+        thread.delta = incremental ? new ChanThreadDelta(response.newPosts,
+                response.deletedChanged, response.repliesChanged, Collections.<Post>emptyList()) : null;
+
+        lastModified = response.lastModified;
+        etag = loadingTail ? null : response.etag;
+
         lastLoadTime = Time.get();
+        if (loadable.isThreadMode()) {
+            refreshPredictor.onLoaded(thread, lastLoadTime, getServerTime());
 
-        int postCount = thread.posts.size();
-        if (postCount > lastPostCount) {
-            lastPostCount = postCount;
-            currentTimeout = 0;
-        } else {
-            currentTimeout = Math.min(currentTimeout + 1, WATCH_TIMEOUTS.length - 1);
+            snapshotDirty = true;
+            if (lastLoadTime - lastSnapshotTime > SNAPSHOT_INTERVAL) {
+                saveSnapshot();
+            }
         }
 
         for (ChanLoaderCallback l : listeners) {
             l.onChanLoaderData(thread);
         }
+
+        applyPendingFilterChanges();
+    }
+
+    /**
+     * The server reported that the thread did not change since the last load. The loaded thread
+     * is still valid, handle it like a load without new posts.
+     */
+    private void onNotModified() {
+        Logger.d(TAG, "Not modified " + loadable.boardCode + ", " + loadable.no);
+
+        thread.revision++;
+        thread.delta = ChanThreadDelta.EMPTY;
+
+        lastLoadTime = Time.get();
+        refreshPredictor.onLoaded(thread, lastLoadTime, getServerTime());
+
+        for (ChanLoaderCallback l : listeners) {
+            l.onChanLoaderData(thread);
+        }
+
+        applyPendingFilterChanges();
     }
 
     /**
@@ -330,6 +622,194 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         for (ChanLoaderCallback l : listeners) {
             l.onChanLoaderError(loaderException);
         }
+
+        applyPendingFilterChanges();
+    }
+
+    /**
+     * Apply changed filters again to the loaded posts, without loading the thread again. Only the
+     * posts that the changed filters match, before or after the change, are checked against all
+     * filters of the board. The matching runs on the parse pool, the posts are updated on the main
+     * thread and the listeners receive the thread with the changed posts in its delta.
+     */
+    public void onFiltersChanged(FilterEngine.FiltersChangedMessage message) {
+        if (isLoading()) {
+            pendingFilterChanges.add(message);
+        } else if (thread != null) {
+            reapplyFilters(Collections.singletonList(message));
+        }
+    }
+
+    private void applyPendingFilterChanges() {
+        if (pendingFilterChanges.isEmpty() || isLoading()) {
+            return;
+        }
+
+        List<FilterEngine.FiltersChangedMessage> messages = new ArrayList<>(pendingFilterChanges);
+        pendingFilterChanges.clear();
+        if (thread != null) {
+            reapplyFilters(messages);
+        }
+    }
+
+    private void reapplyFilters(List<FilterEngine.FiltersChangedMessage> messages) {
+        List<Filter> changed = new ArrayList<>();
+        FilterSnapshot snapshot = null;
+        for (FilterEngine.FiltersChangedMessage message : messages) {
+            if (message.snapshot.version <= filteredVersion) {
+                // The posts were already filtered with these filters.
+                continue;
+            }
+            snapshot = message.snapshot;
+
+            for (Filter filter : message.previous) {
+                if (filterEngine.matchesBoard(filter, loadable.board)) {
+                    changed.add(filter);
+                }
+            }
+            for (Filter filter : message.current) {
+                if (filterEngine.matchesBoard(filter, loadable.board)) {
+                    changed.add(filter);
+                }
+            }
+        }
+        if (snapshot == null) {
+            return;
+        }
+        // The filters after the last change.
+        filteredVersion = snapshot.version;
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        // A downgraded filter is no longer run, the posts it matched can't be found with it.
+        // Evaluate all posts then.
+        boolean allPosts = false;
+        for (int i = 0; i < changed.size(); i++) {
+            allPosts |= filterEngine.getStats().get(changed.get(i)).isDowngraded();
+        }
+        final CompiledFilters changedFilters = allPosts ? null : new CompiledFilters(filterEngine, changed);
+        final CompiledFilters boardFilters = snapshot.forBoard(loadable.board);
+        final ChanThread filteredThread = thread;
+        final List<Post> posts = new ArrayList<>(thread.posts);
+        final boolean foreground = getPriority() == RateLimiter.Priority.FOREGROUND;
+
+        filterExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<FilterChange> changes = matchFilters(posts, changedFilters, boardFilters, foreground);
+                if (changes == null) {
+                    return;
+                }
+
+                AndroidUtils.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFiltersMatched(filteredThread, changes);
+                    }
+                });
+            }
+        });
+    }
+
+    // Evaluate the posts that the changed filters match, or all posts when changedFilters is null.
+    private static List<FilterChange> matchFilters(List<Post> posts, final CompiledFilters changedFilters,
+                                                   final CompiledFilters boardFilters, boolean foreground) {
+        long start = Time.startTiming();
+
+        int chunkSize = PostParseScheduler.chunkSize(posts.size());
+        List<Future<List<FilterChange>>> futures = new ArrayList<>();
+        for (int i = 0; i < posts.size(); i += chunkSize) {
+            List<Callable<FilterChange>> chunk = new ArrayList<>(chunkSize);
+            for (int j = i; j < Math.min(posts.size(), i + chunkSize); j++) {
+                final Post post = posts.get(j);
+                chunk.add(new Callable<FilterChange>() {
+                    @Override
+                    public FilterChange call() throws Exception {
+                        if (changedFilters != null && changedFilters.match(post).isEmpty()) {
+                            return null;
+                        }
+                        return new FilterChange(post, boardFilters.evaluate(post));
+                    }
+                });
+            }
+            futures.add(PostParseScheduler.submit(chunk, foreground));
+        }
+
+        List<FilterChange> changes = new ArrayList<>();
+        try {
+            for (Future<List<FilterChange>> future : futures) {
+                changes.addAll(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Logger.e(TAG, "Error applying the filters", e);
+            return null;
+        }
+        boardFilters.flushStats();
+
+        Time.endTiming("Matched changed filters on " + posts.size() + " posts", start);
+        return changes;
+    }
+
+    private void onFiltersMatched(ChanThread filteredThread, List<FilterChange> changes) {
+        if (thread != filteredThread) {
+            // Loaded again from scratch, with the new filters.
+            return;
+        }
+
+        // Catalog loaders that got the same response share their posts, the first loader to get
+        // here already applied the result to them. Every post a changed filter matches is handed
+        // to the listeners, whether or not apply() still changed it.
+        List<Post> changedPosts = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            FilterChange change = changes.get(i);
+            change.result.apply(change.post);
+            changedPosts.add(change.post);
+        }
+        if (changedPosts.isEmpty()) {
+            return;
+        }
+
+        Logger.d(TAG, "Filters changed " + changedPosts.size() + " posts of " +
+                loadable.boardCode + ", " + loadable.no);
+
+        thread.revision++;
+        thread.delta = new ChanThreadDelta(Collections.<Post>emptyList(),
+                Collections.<Post>emptyList(), Collections.<Post>emptyList(), changedPosts);
+
+        if (loadable.isThreadMode()) {
+            snapshotDirty = true;
+        }
+
+        for (ChanLoaderCallback l : listeners) {
+            l.onChanLoaderData(thread);
+        }
+    }
+
+    /**
+     * The Last-Modified time of the server for the loaded thread in milliseconds, 0 if not known.
+     */
+    private long getServerTime() {
+        return lastModified == null ? 0 : HttpHeaderParser.parseDateAsEpoch(lastModified);
+    }
+
+    /**
+     * A load is in the foreground when any listener is not a {@link BackgroundChanLoaderCallback},
+     * so the posts of a thread that is only refreshed for a pin are parsed after the posts the
+     * user is waiting for. A load that only a {@link PrefetchChanLoaderCallback} waits on goes
+     * after everything else.
+     */
+    private RateLimiter.Priority getPriority() {
+        RateLimiter.Priority priority = RateLimiter.Priority.PREFETCH;
+        for (int i = 0; i < listeners.size(); i++) {
+            ChanLoaderCallback listener = listeners.get(i);
+            if (!(listener instanceof BackgroundChanLoaderCallback)) {
+                return RateLimiter.Priority.FOREGROUND;
+            } else if (!(listener instanceof PrefetchChanLoaderCallback)) {
+                priority = RateLimiter.Priority.PIN_REFRESH;
+            }
+        }
+        return priority;
     }
 
     private void clearPendingRunnable() {
@@ -340,9 +820,31 @@ public class ChanThreadLoader implements Response.ErrorListener, Response.Listen
         }
     }
 
+    private static class FilterChange {
+        private final Post post;
+        private final CompiledFilters.Result result;
+
+        private FilterChange(Post post, CompiledFilters.Result result) {
+            this.post = post;
+            this.result = result;
+        }
+    }
+
     public interface ChanLoaderCallback {
         void onChanLoaderData(ChanThread result);
 
         void onChanLoaderError(ChanLoaderException error);
     }
+
+    /**
+     * A listener that only keeps the loadable updated in the background, like a pin watcher.
+     */
+    public interface BackgroundChanLoaderCallback extends ChanLoaderCallback {
+    }
+
+    /**
+     * A listener that loads the thread before the user asked for it.
+     */
+    public interface PrefetchChanLoaderCallback extends BackgroundChanLoaderCallback {
+    }
 }
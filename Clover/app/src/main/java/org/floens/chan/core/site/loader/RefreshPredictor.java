@@ -0,0 +1,172 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import org.floens.chan.core.model.ChanThread;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Board;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Predicts when the next post in a thread is expected, to schedule the next refresh of a
+ * {@link ChanThreadLoader}.<br>
+ * The posting rate is an exponentially weighted moving average over the gaps between the post
+ * times. The next refresh is planned after the average gap, or after the time the thread has
+ * already been quiet when that is longer, so a thread that died down is refreshed less and less.
+ * How long the thread has been quiet is measured with the device clock from the load that
+ * received the newest post, offset by the age of that post according to the Last-Modified time
+ * of the server, so a skewed device clock does not stretch or shrink it. Activity of the user
+ * restarts the quiet time, and while the thread is shown the interval is capped at
+ * {@link #FOREGROUND_MAX_INTERVAL}.<br>
+ * Threads past the bump limit are not refreshed faster than {@link #BUMP_LIMIT_MIN_INTERVAL},
+ * archived and closed threads are not refreshed at all.
+ */
+class RefreshPredictor {
+    static final long MIN_INTERVAL = 10 * 1000;
+    static final long MAX_INTERVAL = 60 * 60 * 1000;
+    static final long BUMP_LIMIT_MIN_INTERVAL = 30 * 1000;
+    static final long FOREGROUND_MAX_INTERVAL = 3 * 60 * 1000;
+
+    // Weight of a new gap in the average.
+    private static final double ALPHA = 0.25;
+    // Amount of posts the average is seeded with on the first load.
+    private static final int SEED_POSTS = 20;
+
+    // Average gap between posts in seconds, negative when not known yet.
+    private double averageGap = -1;
+    // Server time of the newest post in seconds, negative when nothing was loaded.
+    private long newestPostTime = -1;
+    // Device time in milliseconds since when the thread is quiet, negative when nothing was loaded.
+    private long quietSince = -1;
+    // Seconds the thread has been quiet.
+    private long idle;
+    private boolean bumpLimit;
+    private boolean stopped;
+    private long interval = MIN_INTERVAL;
+
+    void reset() {
+        averageGap = -1;
+        newestPostTime = -1;
+        quietSince = -1;
+        idle = 0;
+        bumpLimit = false;
+        stopped = false;
+        interval = MIN_INTERVAL;
+    }
+
+    /**
+     * Update the prediction with the posts of a successful load, also when nothing changed.
+     *
+     * @param thread     the loaded thread
+     * @param now        the current device time in milliseconds
+     * @param serverTime the Last-Modified time of the server in milliseconds, 0 if not known
+     */
+    void onLoaded(ChanThread thread, long now, long serverTime) {
+        List<Post> posts = thread.posts;
+
+        int start = 0;
+        if (newestPostTime < 0 && posts.size() > SEED_POSTS) {
+            start = posts.size() - SEED_POSTS;
+        }
+
+        boolean newPosts = false;
+        for (int i = start; i < posts.size(); i++) {
+            long time = posts.get(i).time;
+            if (time <= newestPostTime) {
+                continue;
+            }
+
+            newPosts = true;
+            if (newestPostTime >= 0) {
+                long gap = Math.max(1, time - newestPostTime);
+                averageGap = averageGap < 0 ? gap : ALPHA * gap + (1 - ALPHA) * averageGap;
+            }
+            newestPostTime = time;
+        }
+
+        if (newPosts) {
+            // Both times are from the server clock, only the age of the newest post is taken over.
+            long age = serverTime > 0 ? serverTime / 1000L - newestPostTime : 0;
+            quietSince = now - clampIdle(age) * 1000L;
+        }
+
+        idle = quietSince < 0 ? 0 : clampIdle((now - quietSince) / 1000L);
+
+        Post op = thread.op;
+        Board board = op == null ? null : op.board;
+        bumpLimit = board != null && board.bumpLimit > 0 && op.getReplies() >= board.bumpLimit;
+        stopped = thread.archived || thread.closed;
+
+        long expected = Math.max(averageGap < 0 ? 0 : (long) averageGap, idle) * 1000L;
+        interval = stopped ? MAX_INTERVAL : Math.max(getMinInterval(), Math.min(MAX_INTERVAL, expected));
+    }
+
+    /**
+     * The user asked for new posts or came back to the thread, restart the quiet time so the
+     * refreshes back off from the shortest interval again.
+     *
+     * @param now the current device time in milliseconds
+     */
+    void onUserActivity(long now) {
+        if (quietSince >= 0) {
+            quietSince = now;
+        }
+        idle = 0;
+        if (!stopped) {
+            interval = getMinInterval();
+        }
+    }
+
+    /**
+     * The time in milliseconds after the last load that the next refresh is planned.
+     *
+     * @param foreground {@code true} if the thread is shown to the user, the interval is then
+     *                   capped at {@link #FOREGROUND_MAX_INTERVAL}
+     */
+    long getInterval(boolean foreground) {
+        return foreground && !stopped ? Math.min(FOREGROUND_MAX_INTERVAL, interval) : interval;
+    }
+
+    /**
+     * {@code true} if the thread is archived or closed and should not be refreshed anymore.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    String getSummary() {
+        if (stopped) {
+            return "stopped";
+        }
+
+        String rate = averageGap < 0 ? "unknown rate" :
+                String.format(Locale.ENGLISH, "%.1f posts/min", 60.0 / averageGap);
+        return rate + ", quiet for " + idle + "s" + (bumpLimit ? ", bump limit" : "") +
+                ", interval " + (interval / 1000L) + "s";
+    }
+
+    private long getMinInterval() {
+        return bumpLimit ? BUMP_LIMIT_MIN_INTERVAL : MIN_INTERVAL;
+    }
+
+    private static long clampIdle(long seconds) {
+        return Math.max(0, Math.min(MAX_INTERVAL / 1000L, seconds));
+    }
+}
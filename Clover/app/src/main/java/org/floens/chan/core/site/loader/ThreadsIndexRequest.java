@@ -0,0 +1,95 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import android.util.JsonReader;
+
+import com.android.volley.Response;
+
+import org.floens.chan.core.model.orm.Board;
+import org.floens.chan.core.net.JsonReaderRequest;
+import org.floens.chan.core.net.RateLimiter;
+import org.floens.chan.core.site.Site;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Request for the threads index of a board, see {@link org.floens.chan.core.site.SiteEndpoints#threadsIndex(Board)}.
+ * The result maps the thread numbers to the time they were last modified, or -1 for threads of
+ * which the index has no last modified time.
+ */
+public class ThreadsIndexRequest extends JsonReaderRequest<Map<Integer, Long>> {
+    public ThreadsIndexRequest(Site site, Board board,
+                               Response.Listener<Map<Integer, Long>> listener,
+                               Response.ErrorListener errorListener) {
+        super(site.endpoints().threadsIndex(board).toString(), listener, errorListener);
+
+        setTag(new RateLimiter.Tag(site, RateLimiter.Priority.PIN_REFRESH));
+    }
+
+    @Override
+    public Map<Integer, Long> readJson(JsonReader reader) throws Exception {
+        Map<Integer, Long> threads = new HashMap<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("threads")) {
+                    readThreads(reader, threads);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+
+        return threads;
+    }
+
+    private void readThreads(JsonReader reader, Map<Integer, Long> threads) throws Exception {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int no = -1;
+            long lastModified = -1;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "no":
+                        no = reader.nextInt();
+                        break;
+                    case "last_modified":
+                        lastModified = reader.nextLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            if (no >= 0) {
+                threads.put(no, lastModified);
+            }
+        }
+        reader.endArray();
+    }
+}
@@ -29,20 +29,28 @@ import java.util.List;
 import java.util.Map;
 
 public class ChanReaderProcessingQueue {
-    @SuppressLint("UseSparseArrays")
-    private Map<Integer, Post> cachedByNo = new HashMap<>();
+    private Map<Integer, Post> cachedByNo;
     private Loadable loadable;
 
     private List<Post> toReuse = new ArrayList<>();
     private List<Post.Builder> toParse = new ArrayList<>();
     private Post.Builder op;
 
-    public ChanReaderProcessingQueue(List<Post> toReuse, Loadable loadable) {
+    private Callback callback;
+
+    @SuppressLint("UseSparseArrays")
+    public ChanReaderProcessingQueue(List<Post> toReuse, Map<Integer, Post> cachedByNo, Loadable loadable) {
         this.loadable = loadable;
 
-        for (int i = 0; i < toReuse.size(); i++) {
-            Post cache = toReuse.get(i);
-            cachedByNo.put(cache.no, cache);
+        if (cachedByNo != null) {
+            // Index kept by the thread, no need to build it again.
+            this.cachedByNo = cachedByNo;
+        } else {
+            this.cachedByNo = new HashMap<>();
+            for (int i = 0; i < toReuse.size(); i++) {
+                Post cache = toReuse.get(i);
+                this.cachedByNo.put(cache.no, cache);
+            }
         }
     }
 
@@ -52,10 +60,16 @@ public class ChanReaderProcessingQueue {
 
     public void addForReuse(Post post) {
         toReuse.add(post);
+        if (callback != null) {
+            callback.onAddedForReuse(post);
+        }
     }
 
     public void addForParse(Post.Builder postBuilder) {
         toParse.add(postBuilder);
+        if (callback != null) {
+            callback.onAddedForParse(postBuilder);
+        }
     }
 
     public void setOp(Post.Builder op) {
@@ -77,4 +91,17 @@ public class ChanReaderProcessingQueue {
     Post.Builder getOp() {
         return op;
     }
+
+    void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Notified on the reading thread as posts are read, in order.
+     */
+    interface Callback {
+        void onAddedForReuse(Post post);
+
+        void onAddedForParse(Post.Builder postBuilder);
+    }
 }
@@ -19,28 +19,34 @@ package org.floens.chan.core.site.parser;
 
 import android.util.JsonReader;
 
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+
 import org.floens.chan.core.database.DatabaseManager;
 import org.floens.chan.core.database.DatabaseSavedReplyManager;
+import org.floens.chan.core.manager.CompiledFilters;
 import org.floens.chan.core.manager.FilterEngine;
+import org.floens.chan.core.manager.FilterSnapshot;
 import org.floens.chan.core.model.Post;
-import org.floens.chan.core.model.orm.Filter;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.net.JsonReaderRequest;
+import org.floens.chan.core.net.RateLimiter;
 import org.floens.chan.core.site.loader.ChanLoaderRequestParams;
 import org.floens.chan.core.site.loader.ChanLoaderResponse;
+import org.floens.chan.utils.Logger;
 import org.floens.chan.utils.Time;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.inject.Inject;
@@ -58,14 +64,6 @@ public class ChanReaderRequest extends JsonReaderRequest<ChanLoaderResponse> {
     private static final String TAG = "ChanReaderRequest";
     private static final boolean LOG_TIMING = false;
 
-    private static final int THREAD_COUNT;
-    private static final ExecutorService EXECUTOR;
-
-    static {
-        THREAD_COUNT = Runtime.getRuntime().availableProcessors();
-        EXECUTOR = Executors.newFixedThreadPool(THREAD_COUNT);
-    }
-
     @Inject
     DatabaseManager databaseManager;
 
@@ -74,38 +72,68 @@ public class ChanReaderRequest extends JsonReaderRequest<ChanLoaderResponse> {
 
     private Loadable loadable;
     private List<Post> cached;
+    private Map<Integer, Post> cachedByNo;
     private ChanReader reader;
     private DatabaseSavedReplyManager databaseSavedReplyManager;
 
-    private List<Filter> filters;
+    private CompiledFilters filters;
+    private int filterVersion;
+    private RateLimiter.Priority priority;
+    private boolean foreground;
     private long startLoad;
 
+    private String ifModifiedSince;
+    private String ifNoneMatch;
+
+    // Only the tail of the thread is requested, and the last cached reply it has to reach.
+    private boolean tail;
+    private int lastCachedNo;
+
     public ChanReaderRequest(ChanLoaderRequestParams request) {
-        super(getChanUrl(request.loadable).toString(), request.listener, request.errorListener);
+        super(getRequestUrl(request).toString(), request.listener, request.errorListener);
         inject(this);
 
         // Copy the loadable and cached list. The cached array may changed/cleared by other threads.
         loadable = request.loadable.copy();
         cached = new ArrayList<>(request.cached);
+        // A concurrent map, only added to on the main thread after this request is delivered.
+        cachedByNo = request.cachedByNo;
         reader = request.chanReader;
-
-        filters = new ArrayList<>();
-        List<Filter> enabledFilters = filterEngine.getEnabledFilters();
-        for (int i = 0; i < enabledFilters.size(); i++) {
-            Filter filter = enabledFilters.get(i);
-
-            if (filterEngine.matchesBoard(filter, loadable.board)) {
-                // copy the filter because it will get used on other threads
-                filters.add(filter.copy());
+        ifModifiedSince = request.ifModifiedSince;
+        ifNoneMatch = request.ifNoneMatch;
+        tail = request.tail;
+        if (tail) {
+            for (int i = cached.size() - 1; i >= 0; i--) {
+                if (cached.get(i).no != loadable.no) {
+                    lastCachedNo = cached.get(i).no;
+                    break;
+                }
             }
         }
+        priority = request.priority;
+        foreground = priority == RateLimiter.Priority.FOREGROUND;
+        setTag(new RateLimiter.Tag(loadable.site, priority));
+
+        // The validators are managed by the loader, the volley cache would only return stale data.
+        setShouldCache(false);
+
+        FilterSnapshot filterSnapshot = filterEngine.getSnapshot();
+        filters = filterSnapshot.forBoard(loadable.board);
+        filterVersion = filterSnapshot.version;
 
         startLoad = Time.startTiming();
 
         databaseSavedReplyManager = databaseManager.getDatabaseSavedReplyManager();
     }
 
-    private static HttpUrl getChanUrl(Loadable loadable) {
+    private static HttpUrl getRequestUrl(ChanLoaderRequestParams request) {
+        if (request.tail) {
+            return request.loadable.site.endpoints().threadTail(request.loadable.board, request.loadable);
+        }
+        return getChanUrl(request.loadable);
+    }
+
+    public static HttpUrl getChanUrl(Loadable loadable) {
         HttpUrl url;
 
         if (loadable.site == null) {
@@ -128,7 +156,52 @@ public class ChanReaderRequest extends JsonReaderRequest<ChanLoaderResponse> {
 
     @Override
     public Priority getPriority() {
-        return Priority.HIGH;
+        switch (priority) {
+            case FOREGROUND:
+                return Priority.HIGH;
+            case PREFETCH:
+                return Priority.LOW;
+            default:
+                return Priority.NORMAL;
+        }
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        if (ifModifiedSince == null && ifNoneMatch == null) {
+            return super.getHeaders();
+        }
+
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        if (ifModifiedSince != null) {
+            headers.put("If-Modified-Since", ifModifiedSince);
+        }
+        if (ifNoneMatch != null) {
+            headers.put("If-None-Match", ifNoneMatch);
+        }
+        return headers;
+    }
+
+    @Override
+    protected Response<ChanLoaderResponse> parseNetworkResponse(NetworkResponse response) {
+        if (response.notModified) {
+            if (LOG_TIMING) {
+                Time.endTiming("Network (not modified)", startLoad);
+            }
+
+            // Nothing changed since the last load, skip parsing entirely.
+            return Response.success(ChanLoaderResponse.notModified(), null);
+        }
+
+        Response<ChanLoaderResponse> result = super.parseNetworkResponse(response);
+        if (result.isSuccess() && response.headers != null) {
+            result.result.lastModified = response.headers.get("Last-Modified");
+            result.result.etag = response.headers.get("ETag");
+        }
+        if (result.isSuccess()) {
+            result.result.responseBytes = getResponseBytes();
+        }
+        return result;
     }
 
     @Override
@@ -139,32 +212,63 @@ public class ChanReaderRequest extends JsonReaderRequest<ChanLoaderResponse> {
 
         long load = Time.startTiming();
 
-        ChanReaderProcessingQueue processing = new ChanReaderProcessingQueue(cached, loadable);
+        ChanReaderProcessingQueue processing = new ChanReaderProcessingQueue(cached, cachedByNo, loadable);
 
+        List<Post> newPosts;
+        int firstReplyNo = 0;
         if (loadable.isThreadMode()) {
-            this.reader.loadThread(reader, processing);
+            // Parse the posts while the rest of the thread is still being read.
+            StreamingParse streamingParse = new StreamingParse();
+            processing.setCallback(streamingParse);
+            try {
+                this.reader.loadThread(reader, processing);
+            } catch (Exception e) {
+                streamingParse.cancel();
+                throw e;
+            }
+
+            if (LOG_TIMING) {
+                Time.endTiming("Load json", load);
+            }
+
+            if (tail && streamingParse.firstReplyNo > lastCachedNo) {
+                // Posts between the cached posts and the tail would be missing.
+                streamingParse.cancel();
+                Logger.d(TAG, "Tail of " + loadable.no + " starts at " +
+                        streamingParse.firstReplyNo + ", after " + lastCachedNo);
+                return ChanLoaderResponse.incompleteTail();
+            }
+
+            newPosts = streamingParse.finish();
+            firstReplyNo = streamingParse.firstReplyNo;
         } else if (loadable.isCatalogMode()) {
             this.reader.loadCatalog(reader, processing);
+
+            if (LOG_TIMING) {
+                Time.endTiming("Load json", load);
+            }
+
+            newPosts = parsePosts(processing);
         } else {
             throw new IllegalArgumentException("Unknown mode");
         }
 
-        if (LOG_TIMING) {
-            Time.endTiming("Load json", load);
-        }
+        return processPosts(processing.getOp(), processing.getToReuse(), newPosts, firstReplyNo);
+    }
 
-        List<Post> list = parsePosts(processing);
-        return processPosts(processing.getOp(), list);
+    /**
+     * Threads are read straight from the connection, see {@link StreamingParse}.
+     */
+    @Override
+    public boolean shouldStream() {
+        return loadable.isThreadMode();
     }
 
-    // Concurrently parses the new posts with an executor
+    // Concurrently parses the new posts in chunks on the PostParseScheduler
     private List<Post> parsePosts(ChanReaderProcessingQueue queue) throws InterruptedException, ExecutionException {
         long parsePosts = Time.startTiming();
 
-        List<Post> total = new ArrayList<>();
-
         List<Post> cached = queue.getToReuse();
-        total.addAll(cached);
 
         List<Post.Builder> toParse = queue.getToParse();
 
@@ -182,136 +286,242 @@ public class ChanReaderRequest extends JsonReaderRequest<ChanLoaderResponse> {
         // Do not modify internalIds after this point.
         internalIds = Collections.unmodifiableSet(internalIds);
 
-        List<Callable<Post>> tasks = new ArrayList<>(toParse.size());
-        for (int i = 0; i < toParse.size(); i++) {
-            Post.Builder post = toParse.get(i);
-            tasks.add(new PostParseCallable(filterEngine,
-                    filters,
-                    databaseSavedReplyManager,
-                    post,
-                    reader,
-                    internalIds));
-        }
+        List<Post> parsed = new ArrayList<>(toParse.size());
+
+        if (!toParse.isEmpty()) {
+            int chunkSize = PostParseScheduler.chunkSize(toParse.size());
+            List<Future<List<Post>>> futures = new ArrayList<>();
+            for (int start = 0; start < toParse.size(); start += chunkSize) {
+                int end = Math.min(toParse.size(), start + chunkSize);
+                List<PostParseCallable> chunk = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    chunk.add(createParseCallable(toParse.get(i), internalIds));
+                }
+                futures.add(PostParseScheduler.submit(chunk, foreground));
+            }
 
-        if (!tasks.isEmpty()) {
-            List<Future<Post>> futures = EXECUTOR.invokeAll(tasks);
-            for (int i = 0; i < futures.size(); i++) {
-                Future<Post> future = futures.get(i);
-                Post parsedPost = future.get();
-                if (parsedPost != null) {
-                    total.add(parsedPost);
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    parsed.addAll(futures.get(i).get());
                 }
+            } catch (InterruptedException | ExecutionException e) {
+                cancel(futures);
+                throw e;
             }
+            filters.flushStats();
 
             if (LOG_TIMING) {
-                Time.endTiming("Parse posts with " + THREAD_COUNT + " threads", parsePosts);
+                Time.endTiming("Parse " + toParse.size() + " posts in " + futures.size() +
+                        " chunks with " + PostParseScheduler.THREAD_COUNT + " threads", parsePosts);
             }
         }
 
-        return total;
+        return parsed;
     }
 
-    private ChanLoaderResponse processPosts(Post.Builder op, List<Post> allPost) throws Exception {
-        ChanLoaderResponse response = new ChanLoaderResponse(op, new ArrayList<Post>(allPost.size()));
+    private static void cancel(List<Future<List<Post>>> futures) {
+        for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).cancel(true);
+        }
+    }
 
-        List<Post> cachedPosts = new ArrayList<>();
-        List<Post> newPosts = new ArrayList<>();
-        if (cached.size() > 0) {
-            long deleteCheck = Time.startTiming();
-            // Add all posts that were parsed before
-            cachedPosts.addAll(cached);
+    private PostParseCallable createParseCallable(Post.Builder post, Set<Integer> internalIds) {
+        return new PostParseCallable(filters,
+                databaseSavedReplyManager,
+                post,
+                reader,
+                internalIds);
+    }
 
-            Map<Integer, Post> cachedPostsByNo = new HashMap<>();
-            for (int i = 0; i < cachedPosts.size(); i++) {
-                Post post = cachedPosts.get(i);
-                cachedPostsByNo.put(post.no, post);
+    /**
+     * Submits posts to the {@link PostParseScheduler} as soon as they are read, instead of after
+     * the whole json was read. The internal ids are the posts read so far, a post can only quote
+     * posts that came before it in the thread. Posts are submitted in chunks that grow as the
+     * thread is read, the remainder is submitted when the json is done.
+     */
+    private class StreamingParse implements ChanReaderProcessingQueue.Callback {
+        private final long startParse = Time.startTiming();
+        private final Set<Integer> internalIds =
+                Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        private final List<Future<List<Post>>> futures = new ArrayList<>();
+        private int chunkSize = PostParseScheduler.nextChunkSize(0);
+        private List<PostParseCallable> pending = new ArrayList<>(chunkSize);
+        private int postCount;
+        // The lowest number of the posts read, other than the op.
+        private int firstReplyNo = Integer.MAX_VALUE;
+
+        private StreamingParse() {
+            if (tail) {
+                // The tail does not repeat the older posts, they can still be quoted.
+                for (int i = 0; i < cached.size(); i++) {
+                    internalIds.add(cached.get(i).no);
+                }
             }
+        }
+
+        @Override
+        public void onAddedForReuse(Post post) {
+            internalIds.add(post.no);
+            onAdded(post.no);
+        }
+
+        @Override
+        public void onAddedForParse(Post.Builder postBuilder) {
+            internalIds.add(postBuilder.id);
+            onAdded(postBuilder.id);
+            pending.add(createParseCallable(postBuilder, internalIds));
+            postCount++;
 
-            Map<Integer, Post> serverPostsByNo = new HashMap<>();
-            for (int i = 0; i < allPost.size(); i++) {
-                Post post = allPost.get(i);
-                serverPostsByNo.put(post.no, post);
+            if (pending.size() >= chunkSize) {
+                submitPending();
+                chunkSize = PostParseScheduler.nextChunkSize(chunkSize);
             }
+        }
 
-            // If there's a cached post but it's not in the list received from the server, mark it as deleted
-            if (loadable.isThreadMode()) {
-                for (int i = 0; i < cachedPosts.size(); i++) {
-                    Post cachedPost = cachedPosts.get(i);
-                    cachedPost.deleted.set(!serverPostsByNo.containsKey(cachedPost.no));
-                }
+        private void onAdded(int no) {
+            if (no != loadable.no && no < firstReplyNo) {
+                firstReplyNo = no;
             }
-            if (LOG_TIMING) {
-                Time.endTiming("Delete check", deleteCheck);
+        }
+
+        private void submitPending() {
+            futures.add(PostParseScheduler.submit(pending, foreground));
+            pending = new ArrayList<>(chunkSize);
+        }
+
+        private List<Post> finish() throws InterruptedException, ExecutionException {
+            if (!pending.isEmpty()) {
+                submitPending();
             }
-            long newCheck = Time.startTiming();
 
-            // If there's a post in the list from the server, that's not in the cached list, add it.
-            for (int i = 0; i < allPost.size(); i++) {
-                Post serverPost = allPost.get(i);
-                if (!cachedPostsByNo.containsKey(serverPost.no)) {
-                    newPosts.add(serverPost);
+            List<Post> parsed = new ArrayList<>(postCount);
+
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    parsed.addAll(futures.get(i).get());
                 }
+            } catch (InterruptedException | ExecutionException e) {
+                cancel();
+                throw e;
             }
-            if (LOG_TIMING) {
-                Time.endTiming("New check", newCheck);
+            filters.flushStats();
+
+            if (LOG_TIMING && !futures.isEmpty()) {
+                Time.endTiming("Streaming parse " + postCount + " posts in " + futures.size() +
+                        " chunks with " + PostParseScheduler.THREAD_COUNT + " threads", startParse);
             }
-        } else {
-            newPosts.addAll(allPost);
+
+            return parsed;
         }
 
-        List<Post> allPosts = new ArrayList<>(cachedPosts.size() + newPosts.size());
-        allPosts.addAll(cachedPosts);
+        private void cancel() {
+            ChanReaderRequest.cancel(futures);
+        }
+    }
+
+    private ChanLoaderResponse processPosts(Post.Builder op, List<Post> reused, List<Post> newPosts,
+                                           int firstReplyNo) {
+        List<Post> allPosts = new ArrayList<>(cached.size() + newPosts.size());
+        allPosts.addAll(cached);
         allPosts.addAll(newPosts);
 
+        ChanLoaderResponse response = new ChanLoaderResponse(op, allPosts, newPosts);
+        response.filterVersion = filterVersion;
+
         if (loadable.isThreadMode()) {
-            Map<Integer, Post> postsByNo = new HashMap<>();
-            for (int i = 0; i < allPosts.size(); i++) {
-                Post post = allPosts.get(i);
-                postsByNo.put(post.no, post);
+            long deleteCheck = Time.startTiming();
+            List<Post> checked = cached;
+            if (tail) {
+                // The posts before the tail were not received, they can't be checked.
+                checked = new ArrayList<>();
+                for (int i = 0; i < cached.size(); i++) {
+                    Post cachedPost = cached.get(i);
+                    if (cachedPost.no == loadable.no || cachedPost.no >= firstReplyNo) {
+                        checked.add(cachedPost);
+                    }
+                }
+            }
+            markDeleted(reused, checked, response.deletedChanged);
+            if (LOG_TIMING) {
+                Time.endTiming("Delete check", deleteCheck);
             }
 
-            // Maps post no's to a list of no's that that post received replies from
-            Map<Integer, List<Integer>> replies = new HashMap<>();
+            long mapReplies = Time.startTiming();
+            linkReplies(newPosts, response.repliesChanged);
+            if (LOG_TIMING) {
+                Time.endTiming("Map replies of " + newPosts.size() + " new posts", mapReplies);
+            }
+        }
 
-            long collectReplies = Time.startTiming();
-            for (int i = 0; i < allPosts.size(); i++) {
-                Post sourcePost = allPosts.get(i);
+        return response;
+    }
 
-                for (int replyTo : sourcePost.repliesTo) {
-                    List<Integer> value = replies.get(replyTo);
-                    if (value == null) {
-                        value = new ArrayList<>(3);
-                        replies.put(replyTo, value);
-                    }
-                    value.add(sourcePost.no);
+    // If there's a cached post but it's not in the list received from the server, mark it as deleted
+    private void markDeleted(List<Post> reused, List<Post> checked, List<Post> deletedChanged) {
+        if (reused.size() == checked.size()) {
+            // All cached posts were received again.
+            for (int i = 0; i < checked.size(); i++) {
+                Post cachedPost = checked.get(i);
+                if (cachedPost.deleted.getAndSet(false)) {
+                    deletedChanged.add(cachedPost);
                 }
             }
-            if (LOG_TIMING) {
-                Time.endTiming("Collect replies", collectReplies);
+        } else {
+            Set<Integer> reusedNos = new HashSet<>(reused.size());
+            for (int i = 0; i < reused.size(); i++) {
+                reusedNos.add(reused.get(i).no);
             }
-            long mapReplies = Time.startTiming();
 
-            for (Map.Entry<Integer, List<Integer>> entry : replies.entrySet()) {
-                int key = entry.getKey();
-                List<Integer> value = entry.getValue();
+            for (int i = 0; i < checked.size(); i++) {
+                Post cachedPost = checked.get(i);
+                boolean deleted = !reusedNos.contains(cachedPost.no);
+                if (cachedPost.deleted.getAndSet(deleted) != deleted) {
+                    deletedChanged.add(cachedPost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the new posts to the repliesFrom of the posts they reply to. The repliesFrom of cached
+     * posts were set by earlier loads, and cached posts can't reply to new posts, so only the
+     * edges of the new posts need to be added.
+     * The cached posts that got new replies are added to {@code repliesChanged}.
+     */
+    private void linkReplies(List<Post> newPosts, List<Post> repliesChanged) {
+        Set<Post> changed = new LinkedHashSet<>();
+
+        Map<Integer, Post> newPostsByNo = new HashMap<>(newPosts.size());
+        for (int i = 0; i < newPosts.size(); i++) {
+            Post post = newPosts.get(i);
+            newPostsByNo.put(post.no, post);
+        }
+
+        for (int i = 0; i < newPosts.size(); i++) {
+            Post sourcePost = newPosts.get(i);
+
+            for (int replyTo : sourcePost.repliesTo) {
+                boolean cachedSubject = false;
+                Post subject = newPostsByNo.get(replyTo);
+                if (subject == null && cachedByNo != null) {
+                    subject = cachedByNo.get(replyTo);
+                    cachedSubject = true;
+                }
 
-                Post subject = postsByNo.get(key);
                 // Sometimes a post replies to a ghost, a post that doesn't exist.
                 if (subject != null) {
                     synchronized (subject.repliesFrom) {
-                        subject.repliesFrom.clear();
-                        subject.repliesFrom.addAll(value);
+                        if (!subject.repliesFrom.contains(sourcePost.no)) {
+                            subject.repliesFrom.add(sourcePost.no);
+                            if (cachedSubject) {
+                                changed.add(subject);
+                            }
+                        }
                     }
                 }
             }
-
-            if (LOG_TIMING) {
-                Time.endTiming("Map replies", mapReplies);
-            }
         }
 
-        response.posts.addAll(allPosts);
-
-        return response;
+        repliesChanged.addAll(changed);
     }
 }
@@ -17,30 +17,25 @@
  */
 package org.floens.chan.core.site.parser;
 
-import android.graphics.Typeface;
 import android.support.annotation.AnyThread;
 import android.text.SpannableString;
 import android.text.TextUtils;
-import android.text.style.StyleSpan;
-import android.text.style.UnderlineSpan;
 
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostLinkable;
-import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
-import org.floens.chan.ui.span.ForegroundColorSpanHashed;
-import org.floens.chan.ui.theme.Theme;
+import org.floens.chan.core.model.StyledText;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.floens.chan.core.site.parser.StyleRule.tagRule;
-import static org.floens.chan.utils.AndroidUtils.sp;
 
 @AnyThread
 public class CommentParser {
@@ -54,6 +49,9 @@ public class CommentParser {
 
     private Map<String, List<StyleRule>> rules = new HashMap<>();
 
+    // The rules compiled for the lookup in handleTag, rebuilt after a rule is added.
+    private volatile Map<String, TagRules> compiledRules;
+
     public CommentParser() {
         // Required tags.
         rule(tagRule("p"));
@@ -80,7 +78,7 @@ public class CommentParser {
         rule(tagRule("i").italic());
         rule(tagRule("em").italic());
 
-        rule(tagRule("pre").cssClass("prettyprint").monospace().size(sp(12f)));
+        rule(tagRule("pre").cssClass("prettyprint").monospace().size(12f));
     }
 
     public void rule(StyleRule rule) {
@@ -91,6 +89,7 @@ public class CommentParser {
         }
 
         list.add(rule);
+        compiledRules = null;
     }
 
     public void setQuotePattern(Pattern quotePattern) {
@@ -102,44 +101,50 @@ public class CommentParser {
     }
 
     public CharSequence handleTag(PostParser.Callback callback,
-                                  Theme theme,
                                   Post.Builder post,
                                   String tag,
                                   CharSequence text,
-                                  Element element) {
-
-        List<StyleRule> rules = this.rules.get(tag);
-        if (rules != null) {
-            for (int i = 0; i < 2; i++) {
-                boolean highPriority = i == 0;
-                for (StyleRule rule : rules) {
-                    if (rule.highPriority() == highPriority && rule.applies(element)) {
-                        return rule.apply(theme, callback, post, text, element);
-                    }
-                }
+                                  HtmlTag element) {
+
+        Map<String, TagRules> compiledRules = this.compiledRules;
+        if (compiledRules == null) {
+            // Rules are only added when the site is set up, a race here compiles the same rules twice.
+            compiledRules = compileRules();
+            this.compiledRules = compiledRules;
+        }
+
+        TagRules tagRules = compiledRules.get(tag);
+        if (tagRules != null) {
+            StyleRule rule = tagRules.match(element);
+            if (rule != null) {
+                return rule.apply(callback, post, text, element);
             }
         }
 
-        switch (tag) {
-            default:
-                // Unknown tag, return the text;
-                return text;
+        // Unknown tag, return the text;
+        return text;
+    }
+
+    private Map<String, TagRules> compileRules() {
+        Map<String, TagRules> compiled = new HashMap<>(rules.size());
+        for (Map.Entry<String, List<StyleRule>> entry : rules.entrySet()) {
+            compiled.put(entry.getKey(), new TagRules(entry.getValue()));
         }
+        return compiled;
     }
 
-    private CharSequence appendBreakIfNotLastSibling(CharSequence text, Element element) {
-        if (element.nextSibling() != null) {
+    private CharSequence appendBreakIfNotLastSibling(CharSequence text, HtmlTag element) {
+        if (element.hasNextSibling()) {
             return TextUtils.concat(text, "\n");
         } else {
             return text;
         }
     }
 
-    private CharSequence handleAnchor(Theme theme,
-                                      PostParser.Callback callback,
+    private CharSequence handleAnchor(PostParser.Callback callback,
                                       Post.Builder post,
                                       CharSequence text,
-                                      Element anchor) {
+                                      HtmlTag anchor) {
         CommentParser.Link handlerLink = matchAnchor(post, text, anchor, callback);
 
         if (handlerLink != null) {
@@ -163,8 +168,8 @@ public class CommentParser {
             }
 
             SpannableString res = new SpannableString(handlerLink.key);
-            PostLinkable pl = new PostLinkable(theme, handlerLink.key, handlerLink.value, handlerLink.type);
-            res.setSpan(pl, 0, res.length(), 0);
+            PostLinkable pl = new PostLinkable(null, handlerLink.key, handlerLink.value, handlerLink.type);
+            res.setSpan(StyledText.span(StyledText.Style.LINKABLE, pl), 0, res.length(), 0);
             post.addLinkable(pl);
 
             return res;
@@ -173,11 +178,10 @@ public class CommentParser {
         }
     }
 
-    private CharSequence handleFortune(Theme theme,
-                                       PostParser.Callback callback,
+    private CharSequence handleFortune(PostParser.Callback callback,
                                        Post.Builder builder,
                                        CharSequence text,
-                                       Element span) {
+                                       HtmlTag span) {
         // html looks like <span class="fortune" style="color:#0893e1"><br><br><b>Your fortune:</b>
         String style = span.attr("style");
         if (!TextUtils.isEmpty(style)) {
@@ -187,8 +191,8 @@ public class CommentParser {
             if (matcher.find()) {
                 int hexColor = Integer.parseInt(matcher.group(1), 16);
                 if (hexColor >= 0 && hexColor <= 0xffffff) {
-                    text = span(text, new ForegroundColorSpanHashed(0xff000000 + hexColor),
-                            new StyleSpan(Typeface.BOLD));
+                    text = span(text, StyledText.span(StyledText.Style.COLOR, 0xff000000 + hexColor),
+                            StyledText.span(StyledText.Style.BOLD));
                 }
             }
         }
@@ -196,11 +200,12 @@ public class CommentParser {
         return text;
     }
 
-    public CharSequence handleTable(Theme theme,
-                                    PostParser.Callback callback,
+    public CharSequence handleTable(PostParser.Callback callback,
                                     Post.Builder builder,
                                     CharSequence text,
-                                    Element table) {
+                                    HtmlTag tableTag) {
+        // Tables are rare, query the children on a Jsoup element.
+        Element table = tableTag.element();
         List<CharSequence> parts = new ArrayList<>();
         Elements tableRows = table.getElementsByTag("tr");
         for (int i = 0; i < tableRows.size(); i++) {
@@ -212,8 +217,8 @@ public class CommentParser {
 
                     SpannableString tableDataPart = new SpannableString(tableData.text());
                     if (tableData.getElementsByTag("b").size() > 0) {
-                        tableDataPart.setSpan(new StyleSpan(Typeface.BOLD), 0, tableDataPart.length(), 0);
-                        tableDataPart.setSpan(new UnderlineSpan(), 0, tableDataPart.length(), 0);
+                        tableDataPart.setSpan(StyledText.span(StyledText.Style.BOLD), 0, tableDataPart.length(), 0);
+                        tableDataPart.setSpan(StyledText.span(StyledText.Style.UNDERLINE), 0, tableDataPart.length(), 0);
                     }
 
                     parts.add(tableDataPart);
@@ -227,11 +232,11 @@ public class CommentParser {
 
         // Overrides the text (possibly) parsed by child nodes.
         return span(TextUtils.concat(parts.toArray(new CharSequence[parts.size()])),
-                new ForegroundColorSpanHashed(theme.inlineQuoteColor),
-                new AbsoluteSizeSpanHashed(sp(12f)));
+                StyledText.span(StyledText.Style.COLOR_INLINE_QUOTE),
+                StyledText.span(StyledText.Style.SIZE, 12f));
     }
 
-    public Link matchAnchor(Post.Builder post, CharSequence text, Element anchor, PostParser.Callback callback) {
+    public Link matchAnchor(Post.Builder post, CharSequence text, HtmlTag anchor, PostParser.Callback callback) {
         String href = anchor.attr("href");
 
         PostLinkable.Type t;
@@ -284,6 +289,52 @@ public class CommentParser {
         return result;
     }
 
+    /**
+     * The rules of a tag, with the rules that have css classes indexed by class. The rules with
+     * classes take priority over the others, and within those the rule added first wins.
+     */
+    private static class TagRules {
+        private final List<StyleRule> classRules = new ArrayList<>();
+        // Lowercase class name to the index of the first rule with that class in classRules.
+        private final Map<String, Integer> classRuleIndex = new HashMap<>();
+        // The first rule without classes, or null.
+        private StyleRule fallbackRule;
+
+        private TagRules(List<StyleRule> rules) {
+            for (StyleRule rule : rules) {
+                if (rule.highPriority()) {
+                    int index = classRules.size();
+                    classRules.add(rule);
+                    for (String cssClass : rule.classes()) {
+                        String key = cssClass.toLowerCase(Locale.ENGLISH).intern();
+                        if (!classRuleIndex.containsKey(key)) {
+                            classRuleIndex.put(key, index);
+                        }
+                    }
+                } else if (fallbackRule == null) {
+                    fallbackRule = rule;
+                }
+            }
+        }
+
+        private StyleRule match(HtmlTag element) {
+            if (!classRuleIndex.isEmpty()) {
+                int best = Integer.MAX_VALUE;
+                String[] classNames = element.classNames();
+                for (String className : classNames) {
+                    Integer index = classRuleIndex.get(className);
+                    if (index != null && index < best) {
+                        best = index;
+                    }
+                }
+                if (best != Integer.MAX_VALUE) {
+                    return classRules.get(best);
+                }
+            }
+            return fallbackRule;
+        }
+    }
+
     public class Link {
         public PostLinkable.Type type;
         public CharSequence key;
@@ -22,7 +22,7 @@ import android.text.SpannableString;
 
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostLinkable;
-import org.floens.chan.ui.theme.Theme;
+import org.floens.chan.core.model.StyledText;
 import org.nibor.autolink.LinkExtractor;
 import org.nibor.autolink.LinkSpan;
 import org.nibor.autolink.LinkType;
@@ -41,17 +41,17 @@ public class CommentParserHelper {
      * <p>
      * The links are detected with the autolink-java library.
      *
-     * @param theme     The theme to style the links with
      * @param post      The post where the linkables get added to.
      * @param text      Text to find links in
      * @param spannable Spannable to set the spans on.
      */
-    public static void detectLinks(Theme theme, Post.Builder post, String text, SpannableString spannable) {
+    public static void detectLinks(Post.Builder post, String text, SpannableString spannable) {
         final Iterable<LinkSpan> links = LINK_EXTRACTOR.extractLinks(text);
         for (final LinkSpan link : links) {
             final String linkText = text.substring(link.getBeginIndex(), link.getEndIndex());
-            final PostLinkable pl = new PostLinkable(theme, linkText, linkText, PostLinkable.Type.LINK);
-            spannable.setSpan(pl, link.getBeginIndex(), link.getEndIndex(), 0);
+            final PostLinkable pl = new PostLinkable(null, linkText, linkText, PostLinkable.Type.LINK);
+            spannable.setSpan(StyledText.span(StyledText.Style.LINKABLE, pl),
+                    link.getBeginIndex(), link.getEndIndex(), 0);
             post.addLinkable(pl);
         }
     }
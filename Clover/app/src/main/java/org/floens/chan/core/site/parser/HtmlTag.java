@@ -0,0 +1,105 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import org.jsoup.nodes.Element;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An html element of a comment, as seen by the {@link StyleRule}s of the {@link CommentParser}.<br>
+ * Comments are read by the {@link HtmlTokenizer} without building a DOM, or by Jsoup when the
+ * tokenizer could not handle the html.
+ */
+public interface HtmlTag {
+    /**
+     * The lowercase tag name.
+     */
+    String tagName();
+
+    /**
+     * The decoded value of the attribute, or an empty string if the element does not have it.
+     */
+    String attr(String key);
+
+    boolean hasClass(String className);
+
+    /**
+     * The lowercase class names of the element. Parsed once, do not modify the array.
+     */
+    String[] classNames();
+
+    /**
+     * If any node, text or element, follows this element in its parent.
+     */
+    boolean hasNextSibling();
+
+    /**
+     * The element as a Jsoup element, for rules that need to query the children.
+     * This may parse the html of the element, avoid it for common tags.
+     */
+    Element element();
+
+    class JsoupTag implements HtmlTag {
+        private final Element element;
+        private String[] classNames;
+
+        public JsoupTag(Element element) {
+            this.element = element;
+        }
+
+        @Override
+        public String tagName() {
+            return element.nodeName();
+        }
+
+        @Override
+        public String attr(String key) {
+            return element.attr(key);
+        }
+
+        @Override
+        public boolean hasClass(String className) {
+            return element.hasClass(className);
+        }
+
+        @Override
+        public String[] classNames() {
+            if (classNames == null) {
+                Set<String> names = element.classNames();
+                classNames = new String[names.size()];
+                int i = 0;
+                for (String name : names) {
+                    classNames[i++] = name.toLowerCase(Locale.ENGLISH);
+                }
+            }
+            return classNames;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            return element.nextSibling() != null;
+        }
+
+        @Override
+        public Element element() {
+            return element;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import android.support.annotation.AnyThread;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small html tokenizer for the markup used in imageboard comments.<br>
+ * The comment is split into text, start tag and end tag tokens without building a DOM,
+ * attributes are only parsed when a rule asks for them. {@link #walk(Handler)} then replays
+ * the tokens as events.
+ * <p>
+ * Only well formed html is accepted: every element closed in order, and no comments,
+ * raw text elements or stray {@code <}. {@link #tokenize()} returns {@code false} for anything else, the caller
+ * should then fall back to Jsoup, which knows how browsers fix broken html.
+ */
+@AnyThread
+public class HtmlTokenizer {
+    private static final int TEXT = 0;
+    private static final int START_TAG = 1;
+    private static final int END_TAG = 2;
+
+    private static final List<String> VOID_ELEMENTS = Arrays.asList(
+            "br", "wbr", "hr", "img", "input", "meta", "link", "area", "base", "col",
+            "embed", "param", "source", "track");
+
+    // Elements with raw text content, these are not tokenized.
+    private static final List<String> RAW_TEXT_ELEMENTS = Arrays.asList(
+            "script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes");
+
+    private static final String[] NO_CLASSES = new String[0];
+
+    private final String html;
+
+    private int count;
+    private int[] types = new int[16];
+    // Source range of the token, for tags including the < and >.
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    // The tag name for tags, null for text.
+    private String[] names = new String[16];
+    // Index of the end token for start tags, itself for void elements.
+    private int[] matches = new int[16];
+
+    public HtmlTokenizer(String html) {
+        this.html = html;
+    }
+
+    /**
+     * Split the html into tokens.
+     *
+     * @return {@code false} if the html is not well formed.
+     */
+    public boolean tokenize() {
+        int[] open = new int[8];
+        int openCount = 0;
+
+        int length = html.length();
+        int i = 0;
+        while (i < length) {
+            int lt = html.indexOf('<', i);
+            if (lt < 0) {
+                add(TEXT, i, length, null);
+                break;
+            }
+
+            if (lt > i) {
+                add(TEXT, i, lt, null);
+            }
+
+            boolean end = lt + 1 < length && html.charAt(lt + 1) == '/';
+            int nameStart = end ? lt + 2 : lt + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < length && isNameChar(html.charAt(nameEnd), nameEnd == nameStart)) {
+                nameEnd++;
+            }
+            if (nameEnd == nameStart) {
+                // Comments, doctypes or a stray <.
+                return false;
+            }
+
+            int gt = findTagEnd(nameEnd);
+            if (gt < 0) {
+                return false;
+            }
+
+            String name = html.substring(nameStart, nameEnd).toLowerCase(Locale.ENGLISH);
+            if (RAW_TEXT_ELEMENTS.contains(name)) {
+                return false;
+            }
+
+            if (end) {
+                if (openCount == 0 || !names[open[openCount - 1]].equals(name)) {
+                    return false;
+                }
+                int startToken = open[--openCount];
+                matches[startToken] = count;
+                add(END_TAG, lt, gt + 1, name);
+            } else {
+                int token = count;
+                add(START_TAG, lt, gt + 1, name);
+                if (VOID_ELEMENTS.contains(name)) {
+                    matches[token] = token;
+                } else if (html.charAt(gt - 1) == '/') {
+                    // Html ignores the self closing slash on normal elements.
+                    return false;
+                } else {
+                    if (openCount == open.length) {
+                        open = Arrays.copyOf(open, openCount * 2);
+                    }
+                    open[openCount++] = token;
+                }
+            }
+
+            i = gt + 1;
+        }
+
+        return openCount == 0;
+    }
+
+    /**
+     * Replay the tokens as events, {@link #tokenize()} must have returned {@code true}.
+     */
+    public void walk(Handler handler) {
+        List<Tag> open = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            switch (types[i]) {
+                case TEXT:
+                    handler.onText(decodeText(starts[i], ends[i]));
+                    break;
+                case START_TAG: {
+                    Tag tag = new Tag(i);
+                    handler.onStartTag(tag);
+                    if (matches[i] == i) {
+                        handler.onEndTag(tag);
+                    } else {
+                        open.add(tag);
+                    }
+                    break;
+                }
+                case END_TAG:
+                    handler.onEndTag(open.remove(open.size() - 1));
+                    break;
+            }
+        }
+    }
+
+    private void add(int type, int start, int end, String name) {
+        if (count == types.length) {
+            int size = count * 2;
+            types = Arrays.copyOf(types, size);
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            names = Arrays.copyOf(names, size);
+            matches = Arrays.copyOf(matches, size);
+        }
+        types[count] = type;
+        starts[count] = start;
+        ends[count] = end;
+        names[count] = name;
+        count++;
+    }
+
+    private boolean isNameChar(char c, boolean first) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (!first && c >= '0' && c <= '9');
+    }
+
+    // Index of the > closing the tag, skipping over quoted attribute values.
+    private int findTagEnd(int from) {
+        char quote = 0;
+        for (int i = from; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            } else if (c == '<') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // Same as the text of a Jsoup TextNode: entities decoded and whitespace collapsed.
+    private String decodeText(int start, int end) {
+        String raw = html.substring(start, end);
+        String text = raw.indexOf('&') >= 0 ? Parser.unescapeEntities(raw, false) : raw;
+
+        StringBuilder sb = null;
+        boolean lastWasWhite = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean white = c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160;
+            boolean invisible = c == 8203 || c == 173;
+            boolean keep = !invisible && !(white && lastWasWhite);
+            boolean replace = white && c != ' ';
+
+            if (sb == null && (!keep || replace)) {
+                sb = new StringBuilder(text.length());
+                sb.append(text, 0, i);
+            }
+            if (sb != null && keep) {
+                sb.append(white ? ' ' : c);
+            }
+
+            if (!invisible) {
+                lastWasWhite = white;
+            }
+        }
+        return sb == null ? text : sb.toString();
+    }
+
+    public interface Handler {
+        void onStartTag(HtmlTag tag);
+
+        void onEndTag(HtmlTag tag);
+
+        void onText(String text);
+    }
+
+    private class Tag implements HtmlTag {
+        private final int token;
+        private String[] classes;
+
+        private Tag(int token) {
+            this.token = token;
+        }
+
+        @Override
+        public String tagName() {
+            return names[token];
+        }
+
+        @Override
+        public String attr(String key) {
+            // Attributes are parsed from the source of the start tag, starting after the name.
+            int i = starts[token] + 1 + names[token].length();
+            int end = ends[token] - 1;
+            while (i < end) {
+                char c = html.charAt(i);
+                if (Character.isWhitespace(c) || c == '/') {
+                    i++;
+                    continue;
+                }
+
+                int nameStart = i;
+                while (i < end && html.charAt(i) != '=' && html.charAt(i) != '/' &&
+                        !Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                String name = html.substring(nameStart, i);
+
+                while (i < end && Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+
+                String value = "";
+                if (i < end && html.charAt(i) == '=') {
+                    i++;
+                    while (i < end && Character.isWhitespace(html.charAt(i))) {
+                        i++;
+                    }
+                    int valueStart;
+                    int valueEnd;
+                    if (i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                        char quote = html.charAt(i);
+                        valueStart = i + 1;
+                        valueEnd = html.indexOf(quote, valueStart);
+                        i = valueEnd + 1;
+                    } else {
+                        valueStart = i;
+                        while (i < end && !Character.isWhitespace(html.charAt(i))) {
+                            i++;
+                        }
+                        valueEnd = i;
+                    }
+                    value = html.substring(valueStart, valueEnd);
+                }
+
+                if (name.equalsIgnoreCase(key)) {
+                    return value.indexOf('&') >= 0 ? Parser.unescapeEntities(value, true) : value;
+                }
+            }
+            return "";
+        }
+
+        @Override
+        public boolean hasClass(String className) {
+            String[] classes = classNames();
+            for (String c : classes) {
+                if (c.equalsIgnoreCase(className)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String[] classNames() {
+            if (classes == null) {
+                String classAttr = attr("class").trim().toLowerCase(Locale.ENGLISH);
+                classes = classAttr.isEmpty() ? NO_CLASSES : classAttr.split("\\s+");
+            }
+            return classes;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            int next = matches[token] + 1;
+            return next < count && types[next] != END_TAG;
+        }
+
+        @Override
+        public Element element() {
+            String source = html.substring(starts[token], ends[matches[token]]);
+            Element body = Jsoup.parseBodyFragment(source).body();
+            return body.children().isEmpty() ? new Element(tagName()) : body.child(0);
+        }
+    }
+}
@@ -18,11 +18,9 @@
 package org.floens.chan.core.site.parser;
 
 import org.floens.chan.core.database.DatabaseSavedReplyManager;
-import org.floens.chan.core.manager.FilterEngine;
+import org.floens.chan.core.manager.CompiledFilters;
 import org.floens.chan.core.model.Post;
-import org.floens.chan.core.model.orm.Filter;
 
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
@@ -31,19 +29,16 @@ import java.util.concurrent.Callable;
 class PostParseCallable implements Callable<Post> {
     private static final String TAG = "PostParseCallable";
 
-    private FilterEngine filterEngine;
-    private List<Filter> filters;
+    private CompiledFilters filters;
     private DatabaseSavedReplyManager savedReplyManager;
     private Post.Builder post;
     private ChanReader reader;
     private final Set<Integer> internalIds;
 
-    public PostParseCallable(FilterEngine filterEngine,
-                             List<Filter> filters,
+    public PostParseCallable(CompiledFilters filters,
                              DatabaseSavedReplyManager savedReplyManager,
                              Post.Builder post,
                              ChanReader reader, Set<Integer> internalIds) {
-        this.filterEngine = filterEngine;
         this.filters = filters;
         this.savedReplyManager = savedReplyManager;
         this.post = post;
@@ -53,12 +48,9 @@ class PostParseCallable implements Callable<Post> {
 
     @Override
     public Post call() throws Exception {
-        // Process the filters before finish, because parsing the html is dependent on filter matches
-        processPostFilter(post);
-
         post.isSavedReply(savedReplyManager.isSaved(post.board, post.id));
 
-        return reader.getParser().parse(null, post, new PostParser.Callback() {
+        Post parsed = reader.getParser().parse(post, new PostParser.Callback() {
             @Override
             public boolean isSaved(int postNo) {
                 return savedReplyManager.isSaved(post.board, postNo);
@@ -69,26 +61,11 @@ class PostParseCallable implements Callable<Post> {
                 return internalIds.contains(postNo);
             }
         });
-    }
 
-    private void processPostFilter(Post.Builder post) {
-        int filterSize = filters.size();
-        for (int i = 0; i < filterSize; i++) {
-            Filter filter = filters.get(i);
-            if (filterEngine.matches(filter, post)) {
-                FilterEngine.FilterAction action = FilterEngine.FilterAction.forId(filter.action);
-                switch (action) {
-                    case COLOR:
-                        post.filter(filter.color, false, false);
-                        break;
-                    case HIDE:
-                        post.filter(0, true, false);
-                        break;
-                    case REMOVE:
-                        post.filter(0, false, true);
-                        break;
-                }
-            }
-        }
+        // The filters match on the parsed post, the same as when they are applied again to a
+        // loaded thread after they changed. The matches are counted in the filter stats.
+        filters.evaluate(parsed).apply(parsed);
+
+        return parsed;
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool that parses the posts of all {@link ChanReaderRequest}s, and runs the filters again
+ * over loaded posts when they change.<br>
+ * Posts are submitted in chunks instead of one task per post, which keeps the queueing overhead
+ * low on big threads. Queued chunks of foreground loads, the thread the user is looking at, are
+ * run before queued chunks of background loads like pin refreshes. A running chunk is never
+ * interrupted, chunks are kept small enough for that to not matter.
+ */
+public class PostParseScheduler {
+    static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static final int MIN_CHUNK_SIZE = 4;
+    private static final int MAX_CHUNK_SIZE = 64;
+    // Chunks per thread, more chunks balance out posts that are slower to parse than others.
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>());
+
+    private PostParseScheduler() {
+    }
+
+    /**
+     * Chunk size for a load where the amount of posts to parse is known up front.
+     */
+    public static int chunkSize(int postCount) {
+        int size = postCount / (THREAD_COUNT * CHUNKS_PER_THREAD);
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+    }
+
+    /**
+     * Chunk size for the next chunk of a streaming load, where the total is not known. Starts small
+     * to get the threads going early and grows with every chunk submitted.
+     */
+    static int nextChunkSize(int previousChunkSize) {
+        if (previousChunkSize == 0) {
+            return MIN_CHUNK_SIZE;
+        }
+        return Math.min(MAX_CHUNK_SIZE, previousChunkSize * 2);
+    }
+
+    /**
+     * Run the callables of the chunk in order on the pool.
+     *
+     * @return the non-null results of the callables.
+     */
+    public static <T> Future<List<T>> submit(List<? extends Callable<T>> chunk, boolean foreground) {
+        ChunkTask<T> task = new ChunkTask<>(chunk, foreground, sequence.getAndIncrement());
+        EXECUTOR.execute(task);
+        return task;
+    }
+
+    private static class ChunkTask<T> extends FutureTask<List<T>> implements Comparable<ChunkTask<?>> {
+        private final boolean foreground;
+        private final long sequence;
+
+        private ChunkTask(final List<? extends Callable<T>> chunk, boolean foreground, long sequence) {
+            super(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    List<T> results = new ArrayList<>(chunk.size());
+                    for (int i = 0; i < chunk.size(); i++) {
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+
+                        T result = chunk.get(i).call();
+                        if (result != null) {
+                            results.add(result);
+                        }
+                    }
+                    return results;
+                }
+            });
+            this.foreground = foreground;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NonNull ChunkTask<?> other) {
+            if (foreground != other.foreground) {
+                return foreground ? -1 : 1;
+            }
+            // First in, first out within the same priority.
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
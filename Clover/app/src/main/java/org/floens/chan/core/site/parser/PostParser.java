@@ -18,10 +18,9 @@
 package org.floens.chan.core.site.parser;
 
 import org.floens.chan.core.model.Post;
-import org.floens.chan.ui.theme.Theme;
 
 public interface PostParser {
-    Post parse(Theme theme, Post.Builder builder, Callback callback);
+    Post parse(Post.Builder builder, Callback callback);
 
     interface Callback {
         boolean isSaved(int postNo);
@@ -17,19 +17,12 @@
  */
 package org.floens.chan.core.site.parser;
 
-import android.graphics.Typeface;
 import android.text.SpannableString;
 import android.text.TextUtils;
-import android.text.style.StrikethroughSpan;
-import android.text.style.StyleSpan;
-import android.text.style.TypefaceSpan;
 
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.PostLinkable;
-import org.floens.chan.ui.span.AbsoluteSizeSpanHashed;
-import org.floens.chan.ui.span.ForegroundColorSpanHashed;
-import org.floens.chan.ui.theme.Theme;
-import org.jsoup.nodes.Element;
+import org.floens.chan.core.model.StyledText;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -57,7 +50,7 @@ public class StyleRule {
     private boolean bold = false;
     private boolean italic = false;
     private boolean monospace = false;
-    private int size = 0;
+    private float size = 0f;
 
     private PostLinkable.Type link = null;
 
@@ -133,7 +126,10 @@ public class StyleRule {
         return this;
     }
 
-    public StyleRule size(int size) {
+    /**
+     * Set a fixed text size, in sp.
+     */
+    public StyleRule size(float size) {
         this.size = size;
 
         return this;
@@ -163,11 +159,18 @@ public class StyleRule {
         return this;
     }
 
+    /**
+     * The css classes of the rule, or {@code null} if it applies to all elements of the tag.
+     */
+    List<String> classes() {
+        return classes;
+    }
+
     public boolean highPriority() {
         return classes != null && !classes.isEmpty();
     }
 
-    public boolean applies(Element element) {
+    public boolean applies(HtmlTag element) {
         if (classes == null || classes.isEmpty()) {
             return true;
         }
@@ -181,11 +184,10 @@ public class StyleRule {
         return false;
     }
 
-    public CharSequence apply(Theme theme,
-                              PostParser.Callback callback,
+    public CharSequence apply(PostParser.Callback callback,
                               Post.Builder post,
                               CharSequence text,
-                              Element element) {
+                              HtmlTag element) {
         if (nullify) {
             return null;
         }
@@ -196,39 +198,39 @@ public class StyleRule {
 
         CharSequence result = text;
         for (Action action : actions) {
-            result = action.execute(theme, callback, post, text, element);
+            result = action.execute(callback, post, text, element);
         }
 
         List<Object> spansToApply = new ArrayList<>(2);
 
         if (color != null) {
-            spansToApply.add(new ForegroundColorSpanHashed(getColor(theme, color)));
+            spansToApply.add(StyledText.span(getColorStyle(color)));
         }
 
         if (strikeThrough) {
-            spansToApply.add(new StrikethroughSpan());
+            spansToApply.add(StyledText.span(StyledText.Style.STRIKETHROUGH));
         }
 
         if (bold && italic) {
-            spansToApply.add(new StyleSpan(Typeface.BOLD_ITALIC));
+            spansToApply.add(StyledText.span(StyledText.Style.BOLD_ITALIC));
         } else if (bold) {
-            spansToApply.add(new StyleSpan(Typeface.BOLD));
+            spansToApply.add(StyledText.span(StyledText.Style.BOLD));
         } else if (italic) {
-            spansToApply.add(new StyleSpan(Typeface.ITALIC));
+            spansToApply.add(StyledText.span(StyledText.Style.ITALIC));
         }
 
         if (monospace) {
-            spansToApply.add(new TypefaceSpan("monospace"));
+            spansToApply.add(StyledText.span(StyledText.Style.MONOSPACE));
         }
 
-        if (size != 0) {
-            spansToApply.add(new AbsoluteSizeSpanHashed(size));
+        if (size != 0f) {
+            spansToApply.add(StyledText.span(StyledText.Style.SIZE, size));
         }
 
         if (link != null) {
-            PostLinkable pl = new PostLinkable(theme, result, result, link);
+            PostLinkable pl = new PostLinkable(null, result, result, link);
             post.addLinkable(pl);
-            spansToApply.add(pl);
+            spansToApply.add(StyledText.span(StyledText.Style.LINKABLE, pl));
         }
 
         if (!spansToApply.isEmpty()) {
@@ -236,25 +238,25 @@ public class StyleRule {
         }
 
         // Apply break if not the last element.
-        if (blockElement && element.nextSibling() != null) {
+        if (blockElement && element.hasNextSibling()) {
             result = TextUtils.concat(result, "\n");
         }
 
         if (linkify) {
-            CommentParserHelper.detectLinks(theme, post, result.toString(), new SpannableString(result));
+            CommentParserHelper.detectLinks(post, result.toString(), new SpannableString(result));
         }
 
         return result;
     }
 
-    private int getColor(Theme theme, Color color) {
+    private StyledText.Style getColorStyle(Color color) {
         switch (color) {
             case INLINE_QUOTE:
-                return theme.inlineQuoteColor;
+                return StyledText.Style.COLOR_INLINE_QUOTE;
             case QUOTE:
-                return theme.quoteColor;
+                return StyledText.Style.COLOR_QUOTE;
         }
-        return 0;
+        throw new IllegalArgumentException("Unknown color " + color);
     }
 
     private SpannableString applySpan(CharSequence text, List<Object> spans) {
@@ -271,10 +273,9 @@ public class StyleRule {
     }
 
     public interface Action {
-        CharSequence execute(Theme theme,
-                             PostParser.Callback callback,
+        CharSequence execute(PostParser.Callback callback,
                              Post.Builder post,
                              CharSequence text,
-                             Element element);
+                             HtmlTag element);
     }
 }
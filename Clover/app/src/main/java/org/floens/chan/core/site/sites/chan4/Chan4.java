@@ -196,6 +196,23 @@ public class Chan4 extends SiteBase {
                     .build();
         }
 
+        @Override
+        public HttpUrl threadTail(Board board, Loadable loadable) {
+            return a.newBuilder()
+                    .addPathSegment(board.code)
+                    .addPathSegment("thread")
+                    .addPathSegment(loadable.no + "-tail.json")
+                    .build();
+        }
+
+        @Override
+        public HttpUrl threadsIndex(Board board) {
+            return a.newBuilder()
+                    .addPathSegment(board.code)
+                    .addPathSegment("threads.json")
+                    .build();
+        }
+
         @Override
         public HttpUrl imageUrl(Post.Builder post, Map<String, String> arg) {
             return i.newBuilder()
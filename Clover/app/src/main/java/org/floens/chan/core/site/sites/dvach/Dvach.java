@@ -115,6 +115,12 @@ public class Dvach extends CommonSite {
                 return root.builder().s(arg.get("thumbnail")).url();
             }
 
+            @Override
+            public HttpUrl threadsIndex(Board board) {
+                // The threads.json of 2ch is not in the vichan format.
+                return null;
+            }
+
             @Override
             public HttpUrl boards() {
                 return new HttpUrl.Builder().scheme("https").host("2ch.hk").addPathSegment("boards.json").build();
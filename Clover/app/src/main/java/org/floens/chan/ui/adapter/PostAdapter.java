@@ -24,6 +24,7 @@ import android.view.ViewGroup;
 
 import org.floens.chan.R;
 import org.floens.chan.core.model.ChanThread;
+import org.floens.chan.core.model.ChanThreadDelta;
 import org.floens.chan.core.model.Post;
 import org.floens.chan.core.model.orm.Loadable;
 import org.floens.chan.core.settings.ChanSettings;
@@ -31,6 +32,8 @@ import org.floens.chan.ui.cell.PostCellInterface;
 import org.floens.chan.ui.cell.ThreadStatusCell;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
@@ -39,6 +42,9 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private static final int TYPE_POST_STUB = 2;
     private static final int TYPE_LAST_SEEN = 3;
 
+    private static final Comparator<Post> POST_NO_COMPARATOR =
+            (lhs, rhs) -> lhs.no < rhs.no ? -1 : (lhs.no == rhs.no ? 0 : 1);
+
     private final PostAdapterCallback postAdapterCallback;
     private final PostCellInterface.PostCellCallback postCellCallback;
     private RecyclerView recyclerView;
@@ -55,6 +61,11 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private int lastSeenIndicatorPosition = -1;
     private boolean bound;
 
+    // What the display list was created from, to check if the next load can be applied as a delta.
+    private ChanThread boundThread;
+    private int boundRevision;
+    private PostsFilter boundFilter;
+
     private ChanSettings.PostViewMode postViewMode;
     private boolean compact = false;
 
@@ -179,26 +190,109 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         bound = true;
         showError(null);
 
-        sourceList.clear();
-        sourceList.addAll(thread.posts);
+        if (thread == boundThread && thread.revision == boundRevision + 1 && thread.delta != null &&
+                filter.equals(boundFilter) && filter.keepsOrder() && !removedChanged(thread.delta)) {
+            applyDelta(thread, filter, thread.delta);
+        } else {
+            sourceList.clear();
+            sourceList.addAll(thread.posts);
 
-        displayList.clear();
-        displayList.addAll(filter.apply(sourceList));
+            displayList.clear();
+            displayList.addAll(filter.apply(sourceList));
 
-        lastSeenIndicatorPosition = -1;
-        if (thread.loadable.lastViewed >= 0) {
+            lastSeenIndicatorPosition = findLastSeenIndicatorPosition(thread.loadable);
+
+            // Update all, recyclerview will figure out all the animations
+            notifyDataSetChanged();
+        }
+
+        boundThread = thread;
+        boundRevision = thread.revision;
+        boundFilter = filter;
+    }
+
+    /**
+     * Update the lists with only the changes of the last load and notify exactly the items that
+     * changed, so that the other cells do not need to be bound again.
+     */
+    private void applyDelta(ChanThread thread, PostsFilter filter, ChanThreadDelta delta) {
+        int previousPostCount = displayList.size();
+        int previousLastSeen = lastSeenIndicatorPosition;
+
+        List<Post> appended = filter.apply(delta.appended);
+        sourceList.addAll(delta.appended);
+        displayList.addAll(appended);
+        lastSeenIndicatorPosition = findLastSeenIndicatorPosition(thread.loadable);
+
+        boolean lastSeenMoved = previousLastSeen != lastSeenIndicatorPosition;
+        if (lastSeenMoved && previousLastSeen >= 0) {
+            notifyItemRemoved(previousLastSeen);
+        }
+
+        if (!appended.isEmpty()) {
+            int insertPosition = previousPostCount;
+            if (!lastSeenMoved && previousLastSeen >= 0) {
+                insertPosition++;
+            }
+            notifyItemRangeInserted(insertPosition, appended.size());
+        }
+
+        if (lastSeenMoved && lastSeenIndicatorPosition >= 0) {
+            notifyItemInserted(lastSeenIndicatorPosition);
+        }
+
+        notifyPostChanged(delta.deletedChanged);
+        notifyPostChanged(delta.repliesChanged);
+        notifyPostChanged(delta.filterChanged);
+
+        if (showStatusView()) {
+            notifyItemChanged(getItemCount() - 1);
+        }
+    }
+
+    /**
+     * @return {@code true} if the filters removed a shown post or brought back a post, the list
+     * is then built again.
+     */
+    private boolean removedChanged(ChanThreadDelta delta) {
+        for (int i = 0; i < delta.filterChanged.size(); i++) {
+            Post post = delta.filterChanged.get(i);
+            if (post.filterRemove == indexOfPost(post) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void notifyPostChanged(List<Post> posts) {
+        for (int i = 0; i < posts.size(); i++) {
+            int index = indexOfPost(posts.get(i));
+            if (index >= 0) {
+                notifyItemChanged(getScrollPosition(index));
+            }
+        }
+    }
+
+    private int indexOfPost(Post post) {
+        // Thread posts are ordered by number, try that first.
+        int index = Collections.binarySearch(displayList, post, POST_NO_COMPARATOR);
+        if (index >= 0 && displayList.get(index) == post) {
+            return index;
+        }
+        return displayList.indexOf(post);
+    }
+
+    private int findLastSeenIndicatorPosition(Loadable loadable) {
+        if (loadable.lastViewed >= 0) {
             // Do not process the last post, the indicator does not have to appear at the bottom
             for (int i = 0, displayListSize = displayList.size() - 1; i < displayListSize; i++) {
                 Post post = displayList.get(i);
-                if (post.no == thread.loadable.lastViewed) {
-                    lastSeenIndicatorPosition = i + 1;
-                    break;
+                if (post.no == loadable.lastViewed) {
+                    return i + 1;
                 }
             }
         }
-
-        // Update all, recyclerview will figure out all the animations
-        notifyDataSetChanged();
+        return -1;
     }
 
     public List<Post> getDisplayList() {
@@ -214,6 +308,9 @@ public class PostAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         lastSeenIndicatorPosition = -1;
         error = null;
         bound = false;
+        boundThread = null;
+        boundRevision = 0;
+        boundFilter = null;
     }
 
     public void showError(String error) {
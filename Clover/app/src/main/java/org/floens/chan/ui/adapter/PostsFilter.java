@@ -134,6 +134,27 @@ public class PostsFilter {
         return posts;
     }
 
+    /**
+     * @return {@code true} if posts appended to the original list are also at the end of the
+     * filtered list, so that they can be filtered separately.
+     */
+    public boolean keepsOrder() {
+        return order == Order.BUMP;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PostsFilter that = (PostsFilter) o;
+        return order == that.order && TextUtils.equals(query, that.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * order.hashCode() + (query != null ? query.hashCode() : 0);
+    }
+
     public enum Order {
         BUMP("bump"),
         REPLY("reply"),
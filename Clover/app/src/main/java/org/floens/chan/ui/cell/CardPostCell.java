@@ -212,19 +212,21 @@ public class CardPostCell extends CardView implements PostCellInterface, View.On
             filterMatchColor.setVisibility(View.GONE);
         }
 
-        if (!TextUtils.isEmpty(post.subjectSpan)) {
+        CharSequence subjectSpan = post.getSubjectSpan(theme);
+        if (!TextUtils.isEmpty(subjectSpan)) {
             title.setVisibility(View.VISIBLE);
-            title.setText(post.subjectSpan);
+            title.setText(subjectSpan);
         } else {
             title.setVisibility(View.GONE);
             title.setText(null);
         }
 
+        CharSequence commentSpan = post.getCommentSpan(theme);
         CharSequence commentText;
-        if (post.comment.length() > COMMENT_MAX_LENGTH) {
-            commentText = post.comment.subSequence(0, COMMENT_MAX_LENGTH);
+        if (commentSpan.length() > COMMENT_MAX_LENGTH) {
+            commentText = commentSpan.subSequence(0, COMMENT_MAX_LENGTH);
         } else {
-            commentText = post.comment;
+            commentText = commentSpan;
         }
 
         comment.setText(commentText);
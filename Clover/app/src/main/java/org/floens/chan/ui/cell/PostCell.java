@@ -355,12 +355,13 @@ public class PostCell extends LinearLayout implements PostCellInterface {
 
         List<CharSequence> titleParts = new ArrayList<>(5);
 
-        if (post.subjectSpan != null) {
-            titleParts.add(post.subjectSpan);
+        CharSequence subjectSpan = post.getSubjectSpan(theme);
+        if (subjectSpan != null) {
+            titleParts.add(subjectSpan);
             titleParts.add("\n");
         }
 
-        titleParts.add(post.nameTripcodeIdCapcodeSpan);
+        titleParts.add(post.getNameTripcodeIdCapcodeSpan(theme));
 
         CharSequence time;
         if (ChanSettings.postFullDate.get()) {
@@ -434,7 +435,7 @@ public class PostCell extends LinearLayout implements PostCellInterface {
         if (!threadMode && post.comment.length() > COMMENT_MAX_LENGTH_BOARD) {
             commentText = truncatePostComment(post, COMMENT_MAX_LENGTH_BOARD);
         } else {
-            commentText = post.comment;
+            commentText = post.getCommentSpan(theme);
         }
 
         comment.setVisibility(isEmpty(commentText) && post.images == null ? GONE : VISIBLE);
@@ -588,8 +589,9 @@ public class PostCell extends LinearLayout implements PostCellInterface {
     }
 
     private void setPostLinkableListener(Post post, boolean bind) {
-        if (post.comment instanceof Spanned) {
-            Spanned commentSpanned = (Spanned) post.comment;
+        CharSequence commentSpan = post.getCommentSpan(theme);
+        if (commentSpan instanceof Spanned) {
+            Spanned commentSpanned = (Spanned) commentSpan;
             PostLinkable[] linkables = commentSpanned.getSpans(0, commentSpanned.length(), PostLinkable.class);
             for (PostLinkable linkable : linkables) {
                 linkable.setMarkedNo(bind ? markedNo : -1);
@@ -606,10 +608,11 @@ public class PostCell extends LinearLayout implements PostCellInterface {
 
     private CharSequence truncatePostComment(Post post, int maxCommentLength) {
         BreakIterator bi = BreakIterator.getWordInstance();
-        bi.setText(post.comment.toString());
+        bi.setText(post.comment);
         int precedingBoundary = bi.following(maxCommentLength);
+        CharSequence commentSpan = post.getCommentSpan(theme);
         // Fallback to old method in case the comment does not have any spaces/individual words
-        CharSequence commentText = precedingBoundary > 0 ? post.comment.subSequence(0, precedingBoundary) : post.comment.subSequence(0, maxCommentLength);
+        CharSequence commentText = precedingBoundary > 0 ? commentSpan.subSequence(0, precedingBoundary) : commentSpan.subSequence(0, maxCommentLength);
         return TextUtils.concat(commentText, "\u2026"); // append ellipsis
     }
 
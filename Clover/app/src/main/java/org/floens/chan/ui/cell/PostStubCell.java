@@ -188,14 +188,16 @@ public class PostStubCell extends RelativeLayout implements PostCellInterface, V
     private void bindPost(Theme theme, Post post) {
         bound = true;
 
-        if (!TextUtils.isEmpty(post.subjectSpan)) {
-            title.setText(post.subjectSpan);
+        // Without the subject color, the stub uses text_color_secondary
+        if (!TextUtils.isEmpty(post.subject)) {
+            title.setText(post.subject);
         } else {
+            CharSequence commentSpan = post.getCommentSpan(theme);
             CharSequence titleText;
-            if (post.comment.length() > TITLE_MAX_LENGTH) {
-                titleText = post.comment.subSequence(0, TITLE_MAX_LENGTH);
+            if (commentSpan.length() > TITLE_MAX_LENGTH) {
+                titleText = commentSpan.subSequence(0, TITLE_MAX_LENGTH);
             } else {
-                titleText = post.comment;
+                titleText = commentSpan;
             }
             title.setText(titleText);
         }
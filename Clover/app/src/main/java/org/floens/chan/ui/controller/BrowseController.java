@@ -330,7 +330,7 @@ public class BrowseController extends ThreadController implements
         ThreadPresenter presenter = threadLayout.getPresenter();
         presenter.unbindLoadable();
         presenter.bindLoadable(loadable);
-        presenter.requestData();
+        presenter.requestInitialData();
 
         ((ToolbarNavigationController) navigationController).toolbar.updateTitle(navigation);
     }
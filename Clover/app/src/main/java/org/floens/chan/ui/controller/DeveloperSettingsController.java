@@ -27,6 +27,13 @@ import android.widget.TextView;
 import org.floens.chan.R;
 import org.floens.chan.controller.Controller;
 import org.floens.chan.core.database.DatabaseManager;
+import org.floens.chan.core.manager.WatchManager;
+import org.floens.chan.core.net.RateLimiter;
+import org.floens.chan.core.pool.ChanLoaderFactory;
+import org.floens.chan.core.settings.ChanSettings;
+import org.floens.chan.core.site.loader.ChanThreadLoader;
+
+import java.util.Locale;
 
 import javax.inject.Inject;
 
@@ -35,11 +42,26 @@ import static org.floens.chan.utils.AndroidUtils.dp;
 import static org.floens.chan.utils.AndroidUtils.getAttrColor;
 
 public class DeveloperSettingsController extends Controller {
+    // Thread loader cache budgets in megabytes to cycle through, 0 is automatic.
+    private static final int[] CACHE_BUDGETS = {0, 8, 16, 32, 64};
+
     private TextView summaryText;
+    private TextView rateLimiterText;
+    private TextView refreshText;
+    private Button cacheBudgetButton;
 
     @Inject
     DatabaseManager databaseManager;
 
+    @Inject
+    RateLimiter rateLimiter;
+
+    @Inject
+    ChanLoaderFactory chanLoaderFactory;
+
+    @Inject
+    WatchManager watchManager;
+
     public DeveloperSettingsController(Context context) {
         super(context);
     }
@@ -95,6 +117,38 @@ public class DeveloperSettingsController extends Controller {
         resetDbButton.setText("Delete database");
         wrapper.addView(resetDbButton);
 
+        rateLimiterText = new TextView(context);
+        rateLimiterText.setPadding(0, dp(25), 0, 0);
+        wrapper.addView(rateLimiterText);
+
+        setRateLimiterSummary();
+
+        refreshText = new TextView(context);
+        refreshText.setPadding(0, dp(25), 0, 0);
+        wrapper.addView(refreshText);
+
+        setRefreshSummary();
+
+        cacheBudgetButton = new Button(context);
+        cacheBudgetButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int current = ChanSettings.threadCacheBudget.get();
+                int next = CACHE_BUDGETS[0];
+                for (int i = 0; i < CACHE_BUDGETS.length - 1; i++) {
+                    if (CACHE_BUDGETS[i] == current) {
+                        next = CACHE_BUDGETS[i + 1];
+                        break;
+                    }
+                }
+                ChanSettings.threadCacheBudget.set(next);
+                setCacheBudgetText();
+                setRefreshSummary();
+            }
+        });
+        setCacheBudgetText();
+        wrapper.addView(cacheBudgetButton);
+
         ScrollView scrollView = new ScrollView(context);
         scrollView.addView(wrapper);
         view = scrollView;
@@ -107,4 +161,47 @@ public class DeveloperSettingsController extends Controller {
         dbSummary += databaseManager.getSummary();
         summaryText.setText(dbSummary);
     }
+
+    private void setRateLimiterSummary() {
+        StringBuilder summary = new StringBuilder("Request queues:\n");
+        RateLimiter.Priority[] priorities = RateLimiter.Priority.values();
+        for (RateLimiter.BucketStats stats : rateLimiter.getStats()) {
+            summary.append(stats.key).append(": ").append(stats.requests).append(" requests, ")
+                    .append(stats.throttledRequests).append(" throttled for ")
+                    .append(stats.throttledMillis).append("ms");
+            for (int i = 0; i < priorities.length; i++) {
+                if (stats.waiting[i] > 0) {
+                    summary.append(", ").append(stats.waiting[i]).append(" ")
+                            .append(priorities[i].name().toLowerCase(Locale.ENGLISH)).append(" waiting");
+                }
+            }
+            summary.append("\n");
+        }
+        rateLimiterText.setText(summary);
+    }
+
+    private void setCacheBudgetText() {
+        int budget = ChanSettings.threadCacheBudget.get();
+        cacheBudgetButton.setText("Thread loader cache budget: " +
+                (budget == 0 ? "automatic" : budget + " MB"));
+    }
+
+    private void setRefreshSummary() {
+        StringBuilder summary = new StringBuilder();
+        WatchManager.BackgroundUpdateStats stats = watchManager.getLastBackgroundUpdateStats();
+        if (stats != null) {
+            summary.append("Last background update:\n").append(stats).append("\n\n");
+        }
+
+        summary.append("Thread loader cache: ").append(chanLoaderFactory.getCacheSize() / 1024)
+                .append(" of ").append(chanLoaderFactory.getCacheBudget() / 1024).append(" KB\n\n");
+
+        summary.append("Thread refresh schedule:\n");
+        for (ChanThreadLoader loader : chanLoaderFactory.getThreadLoaders()) {
+            long next = loader.getTimeUntilLoadMore() / 1000L;
+            summary.append(loader.getRefreshSummary()).append(", next load in ")
+                    .append(Math.max(0L, next)).append("s\n");
+        }
+        refreshText.setText(summary);
+    }
 }
@@ -252,7 +252,9 @@ public class DrawerController extends Controller implements DrawerAdapter.Callba
     }
 
     public void onEvent(WatchManager.PinChangedMessage message) {
-        drawerAdapter.onPinChanged(recyclerView, message.pin);
+        for (int i = 0; i < message.pins.size(); i++) {
+            drawerAdapter.onPinChanged(recyclerView, message.pins.get(i));
+        }
         updateBadge();
     }
 
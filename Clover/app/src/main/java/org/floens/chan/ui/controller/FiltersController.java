@@ -24,6 +24,7 @@ import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -34,11 +35,12 @@ import org.floens.chan.R;
 import org.floens.chan.controller.Controller;
 import org.floens.chan.core.database.DatabaseManager;
 import org.floens.chan.core.manager.FilterEngine;
+import org.floens.chan.core.manager.FilterStats;
 import org.floens.chan.core.manager.FilterType;
 import org.floens.chan.core.model.orm.Filter;
-import org.floens.chan.ui.helper.RefreshUIMessage;
 import org.floens.chan.ui.layout.FilterLayout;
 import org.floens.chan.ui.toolbar.ToolbarMenuItem;
+import org.floens.chan.utils.Time;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -46,8 +48,6 @@ import java.util.Locale;
 
 import javax.inject.Inject;
 
-import de.greenrobot.event.EventBus;
-
 import static org.floens.chan.Chan.inject;
 import static org.floens.chan.ui.theme.ThemeHelper.theme;
 import static org.floens.chan.utils.AndroidUtils.getAttrColor;
@@ -146,7 +146,6 @@ public class FiltersController extends Controller implements
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         filterEngine.createOrUpdateFilter(filterLayout.getFilter());
-                        EventBus.getDefault().post(new RefreshUIMessage("filters"));
                         adapter.load();
                     }
                 })
@@ -164,7 +163,6 @@ public class FiltersController extends Controller implements
 
     private void deleteFilter(Filter filter) {
         filterEngine.deleteFilter(filter);
-        EventBus.getDefault().post(new RefreshUIMessage("filters"));
         adapter.load();
         //TODO: undo
     }
@@ -214,6 +212,22 @@ public class FiltersController extends Controller implements
 
             subText += " \u2013 " + FiltersController.actionName(FilterEngine.FilterAction.forId(filter.action));
 
+            FilterStats.Entry stats = filterEngine.getStats().get(filter);
+            if (stats.isDowngraded()) {
+                subText += " \u2013 " + context.getString(R.string.filter_too_slow);
+            }
+
+            if (filter.enabled && stats.getEvaluations() > 0) {
+                String ms = String.format(Locale.ENGLISH, "%.1f", stats.getNanos() / 1_000_000.0);
+                subText += "\n" + context.getString(R.string.filter_stats,
+                        stats.getMatches(), stats.getEvaluations(), ms);
+                if (stats.getLastMatchTime() > 0) {
+                    subText += " \u2013 " + context.getString(R.string.filter_stats_last_match,
+                            DateUtils.getRelativeTimeSpanString(stats.getLastMatchTime(), Time.get(),
+                                    DateUtils.SECOND_IN_MILLIS, 0));
+                }
+            }
+
             holder.subtext.setText(subText);
         }
 
@@ -139,6 +139,7 @@ public class MediaSettingsController extends SettingsController {
     private void setupMediaLoadTypesSetting(SettingsGroup loading) {
         List<ListSettingView.Item> imageAutoLoadTypes = new ArrayList<>();
         List<ListSettingView.Item> videoAutoLoadTypes = new ArrayList<>();
+        List<ListSettingView.Item> threadPrefetchTypes = new ArrayList<>();
         for (ChanSettings.MediaAutoLoadMode mode : ChanSettings.MediaAutoLoadMode.values()) {
             int name = 0;
             switch (mode) {
@@ -155,6 +156,7 @@ public class MediaSettingsController extends SettingsController {
 
             imageAutoLoadTypes.add(new ListSettingView.Item<>(getString(name), mode));
             videoAutoLoadTypes.add(new ListSettingView.Item<>(getString(name), mode));
+            threadPrefetchTypes.add(new ListSettingView.Item<>(getString(name), mode));
         }
 
         imageAutoLoadView = new ListSettingView<>(this,
@@ -167,6 +169,10 @@ public class MediaSettingsController extends SettingsController {
                 videoAutoLoadTypes);
         loading.add(videoAutoLoadView);
 
+        loading.add(new ListSettingView<>(this,
+                ChanSettings.threadPrefetchNetwork, R.string.setting_thread_prefetch,
+                threadPrefetchTypes));
+
         updateVideoLoadModes();
     }
 
@@ -171,8 +171,11 @@ public class ViewThreadController extends ThreadController implements ThreadLayo
     public void onEvent(WatchManager.PinChangedMessage message) {
         setPinIconState(false);
         // Update title
-        if (message.pin.loadable == loadable) {
-            onShowPosts();
+        for (int i = 0; i < message.pins.size(); i++) {
+            if (message.pins.get(i).loadable == loadable) {
+                onShowPosts();
+                break;
+            }
         }
     }
 
@@ -0,0 +1,290 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import org.floens.chan.core.database.DatabaseFilterManager;
+import org.floens.chan.core.database.DatabaseManager;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Board;
+import org.floens.chan.core.model.orm.Filter;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that {@link CompiledFilters} matches the same posts as matching every filter on its own
+ * with {@link FilterEngine#matches(Filter, boolean, String, boolean)}, on random patterns and
+ * texts. The words are picked so that the patterns often overlap, share prefixes and sit next to
+ * punctuation and non ascii letters, where the word boundaries of the automaton are most likely to
+ * differ from the ones of the regex.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CompiledFiltersTest {
+    private static final String[] WORDS = {
+            "foo", "bar", "baz", "foobar", "barfoo", "fo", "o", "a", "Foo", "BAR", "fooBar",
+            "na\u00efve", "\u00e9", "stra\u00dfe", "\u00df", "\u65e5\u672c", "x1", "1x", "_y",
+            "y_", "42", "c++", "a.b", "(x)", "-foo", "foo-", "O'Neil", "*"
+    };
+
+    private static final String[] SEPARATORS = {
+            " ", " ", " ", "  ", "", ".", ",", "\n", "-", "_", "'", "!", "\u00a0"
+    };
+
+    private static final String[] REGEXES = {
+            "/fo+/", "/^bar/i", "/baz$/", "/b.z/i", "/foo|qux/", "/\\bna/", "/[0-9]+x/",
+            "/stra\u00dfe/i", "//", "/(/", "/foo/x", "/a\\.b/"
+    };
+
+    private static final String[] EXACT = {
+            "Anonymous", "foo", "Foo", "bar baz", "!Tr1pc0de", "!!S3cure", "abcd1234", ""
+    };
+
+    private FilterEngine filterEngine;
+    private Board board;
+    private int nextFilterId;
+
+    @Before
+    public void setUp() {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        when(databaseManager.getDatabaseFilterManager()).thenReturn(mock(DatabaseFilterManager.class));
+        when(databaseManager.runTask(any())).thenReturn(new ArrayList<Filter>());
+        filterEngine = new FilterEngine(databaseManager, mock(BoardManager.class));
+
+        board = new Board();
+        board.code = "g";
+        nextFilterId = 1;
+    }
+
+    @Test
+    public void testMatchesLikeFilterEngine() {
+        Random random = new Random(4815162342L);
+        for (int round = 0; round < 300; round++) {
+            List<Filter> filters = new ArrayList<>();
+            int filterCount = 1 + random.nextInt(12);
+            for (int i = 0; i < filterCount; i++) {
+                filters.add(randomFilter(random));
+            }
+
+            CompiledFilters compiledFilters = new CompiledFilters(filterEngine, filters);
+            for (int i = 0; i < 40; i++) {
+                Post post = randomPost(random);
+                BitSet matched = compiledFilters.match(post);
+                for (int j = 0; j < filters.size(); j++) {
+                    Filter filter = filters.get(j);
+                    assertEquals("Filter " + describe(filter) + " on " + describe(post),
+                            matchesOnItsOwn(filter, post), matched.get(j));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWords() {
+        Filter filter = filter(FilterType.COMMENT.flag, "foo ba*");
+        assertMatches(filter, "some foo here", true);
+        assertMatches(filter, "FOO!", true);
+        assertMatches(filter, "food", false);
+        assertMatches(filter, "a bazaar", true);
+        assertMatches(filter, "abar", false);
+    }
+
+    @Test
+    public void testQuotedSentence() {
+        Filter filter = filter(FilterType.COMMENT.flag, "\"foo bar\"");
+        assertMatches(filter, "xfoo barx", true);
+        assertMatches(filter, "FOO BAR", true);
+        assertMatches(filter, "foo  bar", false);
+    }
+
+    @Test
+    public void testExact() {
+        Filter filter = filter(FilterType.NAME.flag | FilterType.ID.flag, "Foo");
+        assertTrue(match(filter, post("", "", "Foo", "", "")));
+        assertTrue(match(filter, post("", "", "", "", "Foo")));
+        assertFalse(match(filter, post("", "", "foo", "", "")));
+        assertFalse(match(filter, post("Foo", "Foo", "", "Foo", "")));
+    }
+
+    @Test
+    public void testDowngradedRegexSkipped() {
+        Filter filter = filter(FilterType.COMMENT.flag, "/fo+/");
+        assertMatches(filter, "foo", true);
+
+        FilterStats.Entry entry = filterEngine.getStats().get(filter);
+        entry.addRegexRun(FilterStats.STALL_NANOS);
+        entry.addSlowRun(FilterStats.STALL_NANOS);
+        assertFalse(match(filter, post("foo", "", "", "", "")));
+    }
+
+    private void assertMatches(Filter filter, String comment, boolean matches) {
+        Post post = post(comment, "", "", "", "");
+        assertEquals(describe(filter) + " on " + describe(post), matches, match(filter, post));
+        assertEquals(matches, matchesOnItsOwn(filter, post));
+    }
+
+    private boolean match(Filter filter, Post post) {
+        return new CompiledFilters(filterEngine, Collections.singletonList(filter)).match(post).get(0);
+    }
+
+    private boolean matchesOnItsOwn(Filter filter, Post post) {
+        for (FilterType type : FilterType.values()) {
+            if (filter.hasFilter(type) &&
+                    filterEngine.matches(filter, type.isRegex, getText(type, post), true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getText(FilterType type, Post post) {
+        switch (type) {
+            case TRIPCODE:
+                return post.filterTripcode;
+            case NAME:
+                return post.filterName;
+            case COMMENT:
+                return post.comment;
+            case ID:
+                return post.filterPosterId;
+            case SUBJECT:
+                return post.subject;
+            case FILENAME:
+                // The posts have no images.
+                return null;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private Filter randomFilter(Random random) {
+        int type = 1 + random.nextInt(0x3f);
+
+        String pattern;
+        int kind = random.nextInt(10);
+        if (kind < 5) {
+            pattern = randomWords(random, 1 + random.nextInt(3), true);
+        } else if (kind < 7) {
+            pattern = "\"" + randomText(random, random.nextInt(3)) + "\"";
+        } else if (kind < 9) {
+            pattern = REGEXES[random.nextInt(REGEXES.length)];
+        } else {
+            pattern = EXACT[random.nextInt(EXACT.length)];
+        }
+
+        return filter(type, pattern);
+    }
+
+    private Post randomPost(Random random) {
+        return post(randomText(random, random.nextInt(8)),
+                random.nextInt(3) == 0 ? null : randomText(random, random.nextInt(4)),
+                randomExact(random), randomExact(random), randomExact(random));
+    }
+
+    private String randomExact(Random random) {
+        int pick = random.nextInt(EXACT.length + 2);
+        if (pick == EXACT.length) {
+            return null;
+        } else if (pick > EXACT.length) {
+            return randomText(random, 1 + random.nextInt(2));
+        } else {
+            return EXACT[pick];
+        }
+    }
+
+    // Words joined by spaces, like the word filters, optionally with wildcards.
+    private String randomWords(Random random, int count, boolean wildcards) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(random.nextInt(8) == 0 ? "  " : " ");
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (wildcards && random.nextInt(3) == 0) {
+                int at = random.nextInt(word.length() + 1);
+                word = word.substring(0, at) + "*" + word.substring(at);
+            }
+            sb.append(word);
+        }
+        return sb.toString();
+    }
+
+    private String randomText(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        if (count > 0 && random.nextInt(4) == 0) {
+            sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (count > 0 && random.nextInt(4) == 0) {
+            sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private Filter filter(int type, String pattern) {
+        Filter filter = new Filter();
+        filter.id = nextFilterId++;
+        filter.type = type;
+        filter.pattern = pattern;
+        return filter;
+    }
+
+    private Post post(String comment, String subject, String name, String tripcode, String posterId) {
+        return new Post.Builder()
+                .board(board)
+                .id(1)
+                .opId(1)
+                .setUnixTimestampSeconds(1500000000L)
+                .comment(comment)
+                .subject(subject)
+                .name(name)
+                .tripcode(tripcode)
+                .posterId(posterId)
+                .build();
+    }
+
+    private String describe(Filter filter) {
+        return "type " + filter.type + " pattern [" + filter.pattern + "]";
+    }
+
+    private String describe(Post post) {
+        return "comment [" + post.comment + "] subject [" + post.subject + "] name [" +
+                post.filterName + "] tripcode [" + post.filterTripcode + "] id [" +
+                post.filterPosterId + "]";
+    }
+}
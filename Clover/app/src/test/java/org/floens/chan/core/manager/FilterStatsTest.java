@@ -0,0 +1,141 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.manager;
+
+import org.floens.chan.core.model.orm.Filter;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FilterStatsTest {
+    private static final long FAST = FilterStats.SLOW_RUN_NANOS / 10;
+    private static final long SLOW = FilterStats.SLOW_RUN_NANOS;
+
+    private FilterStats stats;
+    private Filter filter;
+
+    @Before
+    public void setUp() {
+        stats = new FilterStats();
+        filter = new Filter();
+        filter.id = 1;
+    }
+
+    @Test
+    public void testGetKeepsEntry() {
+        FilterStats.Entry entry = stats.get(filter);
+        assertSame(entry, stats.get(filter));
+
+        Filter other = new Filter();
+        other.id = 2;
+        assertNotSame(entry, stats.get(other));
+    }
+
+    @Test
+    public void testFastRunsNeverDowngrade() {
+        FilterStats.Entry entry = stats.get(filter);
+        for (int i = 0; i < FilterStats.RUN_WINDOW * 5; i++) {
+            entry.addRegexRun(FAST);
+            assertFalse(entry.addSlowRun(FAST));
+        }
+        assertFalse(entry.isDowngraded());
+        assertEquals(0, entry.getSlowRuns());
+        assertEquals(FilterStats.RUN_WINDOW * 5, entry.getRegexRuns());
+        assertEquals(FAST * FilterStats.RUN_WINDOW * 5, entry.getRegexNanos());
+    }
+
+    @Test
+    public void testSlowRunsInWindowDowngrade() {
+        FilterStats.Entry entry = stats.get(filter);
+        for (int i = 0; i < FilterStats.MAX_SLOW_RUNS - 1; i++) {
+            run(entry, SLOW);
+            assertFalse(entry.isDowngraded());
+        }
+
+        entry.addRegexRun(SLOW);
+        assertTrue(entry.addSlowRun(SLOW));
+        assertTrue(entry.isDowngraded());
+
+        // Only the run that downgraded it reports it.
+        entry.addRegexRun(SLOW);
+        assertFalse(entry.addSlowRun(SLOW));
+        assertTrue(entry.isDowngraded());
+        assertEquals(FilterStats.MAX_SLOW_RUNS + 1, entry.getSlowRuns());
+    }
+
+    @Test
+    public void testSlowRunsSpreadOverWindowsTolerated() {
+        FilterStats.Entry entry = stats.get(filter);
+        int perWindow = FilterStats.MAX_SLOW_RUNS - 1;
+        int windows = 10;
+        for (int i = 0; i < FilterStats.RUN_WINDOW * windows; i++) {
+            // Just under the limit in every window.
+            run(entry, i % FilterStats.RUN_WINDOW < perWindow ? SLOW : FAST);
+        }
+        assertFalse(entry.isDowngraded());
+        assertEquals(perWindow * windows, entry.getSlowRuns());
+    }
+
+    @Test
+    public void testStallDowngradesRightAway() {
+        FilterStats.Entry entry = stats.get(filter);
+        entry.addRegexRun(FilterStats.STALL_NANOS);
+        assertTrue(entry.addSlowRun(FilterStats.STALL_NANOS));
+        assertTrue(entry.isDowngraded());
+    }
+
+    @Test
+    public void testResetClearsDowngrade() {
+        FilterStats.Entry entry = stats.get(filter);
+        run(entry, FilterStats.STALL_NANOS);
+        assertTrue(entry.isDowngraded());
+
+        stats.reset(filter);
+        FilterStats.Entry fresh = stats.get(filter);
+        assertNotSame(entry, fresh);
+        assertFalse(fresh.isDowngraded());
+        assertEquals(0, fresh.getRegexRuns());
+    }
+
+    @Test
+    public void testCounters() {
+        FilterStats.Entry entry = stats.get(filter);
+        entry.addEvaluations(10, 1000);
+        entry.addEvaluations(5, 500);
+        entry.addMatch(1234);
+        entry.addMatch(5678);
+        run(entry, FAST);
+
+        assertEquals(15, entry.getEvaluations());
+        assertEquals(2, entry.getMatches());
+        assertEquals(5678, entry.getLastMatchTime());
+        assertEquals(1500 + FAST, entry.getNanos());
+    }
+
+    private void run(FilterStats.Entry entry, long nanos) {
+        entry.addRegexRun(nanos);
+        if (nanos >= FilterStats.SLOW_RUN_NANOS) {
+            entry.addSlowRun(nanos);
+        }
+    }
+}
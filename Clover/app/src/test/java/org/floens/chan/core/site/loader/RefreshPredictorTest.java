@@ -0,0 +1,194 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.loader;
+
+import org.floens.chan.core.model.ChanThread;
+import org.floens.chan.core.model.Post;
+import org.floens.chan.core.model.orm.Board;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshPredictorTest {
+    // Server time of the first post in seconds.
+    private static final long START = 1500000000L;
+    // Device time in milliseconds, far off from the server clock.
+    private static final long DEVICE_NOW = 86400000L;
+
+    private RefreshPredictor predictor;
+    private Board board;
+
+    @Before
+    public void setUp() {
+        predictor = new RefreshPredictor();
+        board = new Board();
+        board.code = "g";
+    }
+
+    @Test
+    public void testActiveThread() {
+        ChanThread thread = thread(0, 30, 20);
+        long newest = START + 29 * 20;
+        predictor.onLoaded(thread, DEVICE_NOW, (newest + 5) * 1000L);
+
+        assertEquals(20000L, predictor.getInterval(false));
+        assertEquals(20000L, predictor.getInterval(true));
+        assertFalse(predictor.isStopped());
+    }
+
+    @Test
+    public void testQuietThreadBacksOff() {
+        ChanThread thread = thread(0, 30, 20);
+        long newest = START + 29 * 20;
+        predictor.onLoaded(thread, DEVICE_NOW, (newest + 600) * 1000L);
+
+        assertEquals(600000L, predictor.getInterval(false));
+        assertEquals(RefreshPredictor.FOREGROUND_MAX_INTERVAL, predictor.getInterval(true));
+
+        // Nothing new on the next load, the quiet time keeps counting on the device clock.
+        predictor.onLoaded(thread, DEVICE_NOW + 600000L, (newest + 1200) * 1000L);
+        assertEquals(1200000L, predictor.getInterval(false));
+    }
+
+    @Test
+    public void testDeviceClockSkewIgnored() {
+        ChanThread thread = thread(0, 30, 20);
+        long newest = START + 29 * 20;
+        long serverTime = (newest + 60) * 1000L;
+
+        predictor.onLoaded(thread, serverTime, serverTime);
+        long interval = predictor.getInterval(false);
+
+        predictor.reset();
+        predictor.onLoaded(thread, serverTime - 3600000L, serverTime);
+        assertEquals(interval, predictor.getInterval(false));
+
+        predictor.reset();
+        predictor.onLoaded(thread, serverTime + 3600000L, serverTime);
+        assertEquals(interval, predictor.getInterval(false));
+    }
+
+    @Test
+    public void testAverageFollowsNewPosts() {
+        List<Post> posts = posts(0, 30, 20);
+        ChanThread thread = new ChanThread(null, posts);
+        thread.op = posts.get(0);
+        long newest = START + 29 * 20;
+        predictor.onLoaded(thread, DEVICE_NOW, newest * 1000L);
+        assertEquals(20000L, predictor.getInterval(false));
+
+        // A gap of 100s moves the average a quarter of the way.
+        posts.add(post(newest + 100, 0));
+        predictor.onLoaded(thread, DEVICE_NOW + 100000L, (newest + 100) * 1000L);
+        assertEquals(40000L, predictor.getInterval(false));
+    }
+
+    @Test
+    public void testUserActivity() {
+        ChanThread thread = thread(0, 30, 20);
+        long newest = START + 29 * 20;
+        predictor.onLoaded(thread, DEVICE_NOW, (newest + 600) * 1000L);
+
+        predictor.onUserActivity(DEVICE_NOW);
+        assertEquals(RefreshPredictor.MIN_INTERVAL, predictor.getInterval(false));
+
+        // The quiet time starts again from the activity.
+        predictor.onLoaded(thread, DEVICE_NOW + 30000L, (newest + 630) * 1000L);
+        assertEquals(30000L, predictor.getInterval(false));
+    }
+
+    @Test
+    public void testBounds() {
+        ChanThread single = thread(0, 1, 0);
+        predictor.onLoaded(single, DEVICE_NOW, START * 1000L);
+        assertEquals(RefreshPredictor.MIN_INTERVAL, predictor.getInterval(false));
+
+        predictor.reset();
+        ChanThread dead = thread(0, 30, 20);
+        predictor.onLoaded(dead, DEVICE_NOW, (START + 10 * 3600) * 1000L);
+        assertEquals(RefreshPredictor.MAX_INTERVAL, predictor.getInterval(false));
+        assertEquals(RefreshPredictor.FOREGROUND_MAX_INTERVAL, predictor.getInterval(true));
+    }
+
+    @Test
+    public void testBumpLimit() {
+        board.bumpLimit = 300;
+        ChanThread thread = thread(300, 30, 5);
+        long newest = START + 29 * 5;
+        predictor.onLoaded(thread, DEVICE_NOW, newest * 1000L);
+        assertEquals(RefreshPredictor.BUMP_LIMIT_MIN_INTERVAL, predictor.getInterval(false));
+
+        predictor.onUserActivity(DEVICE_NOW);
+        assertEquals(RefreshPredictor.BUMP_LIMIT_MIN_INTERVAL, predictor.getInterval(true));
+
+        predictor.reset();
+        ChanThread below = thread(299, 30, 5);
+        predictor.onLoaded(below, DEVICE_NOW, newest * 1000L);
+        assertEquals(RefreshPredictor.MIN_INTERVAL, predictor.getInterval(false));
+    }
+
+    @Test
+    public void testStopped() {
+        ChanThread thread = thread(0, 30, 20);
+        thread.archived = true;
+        predictor.onLoaded(thread, DEVICE_NOW, 0);
+
+        assertTrue(predictor.isStopped());
+        assertEquals(RefreshPredictor.MAX_INTERVAL, predictor.getInterval(true));
+        predictor.onUserActivity(DEVICE_NOW);
+        assertEquals(RefreshPredictor.MAX_INTERVAL, predictor.getInterval(false));
+
+        predictor.reset();
+        assertFalse(predictor.isStopped());
+        assertEquals(RefreshPredictor.MIN_INTERVAL, predictor.getInterval(false));
+    }
+
+    private ChanThread thread(int replies, int count, long gap) {
+        List<Post> posts = posts(replies, count, gap);
+        ChanThread thread = new ChanThread(null, posts);
+        thread.op = posts.get(0);
+        return thread;
+    }
+
+    // The op with the reply count followed by posts every gap seconds.
+    private List<Post> posts(int replies, int count, long gap) {
+        List<Post> posts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            posts.add(post(START + i * gap, i == 0 ? replies : 0));
+        }
+        return posts;
+    }
+
+    private Post post(long time, int replies) {
+        return new Post.Builder()
+                .board(board)
+                .id((int) (time - START) + 1)
+                .opId(1)
+                .op(time == START)
+                .replies(replies)
+                .setUnixTimestampSeconds(time)
+                .comment("")
+                .build();
+    }
+}
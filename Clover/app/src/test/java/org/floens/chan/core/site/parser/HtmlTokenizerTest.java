@@ -0,0 +1,179 @@
+/*
+ * Clover - 4chan browser https://github.com/Floens/Clover/
+ * Copyright (C) 2014  Floens
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.floens.chan.core.site.parser;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The events of the {@link HtmlTokenizer} are checked against a walk over the Jsoup document,
+ * the way the comment was parsed before.
+ */
+public class HtmlTokenizerTest {
+    private static final String[] WELL_FORMED = {
+            "",
+            "plain text",
+            "a &gt; b &amp;amp; c&#39;s &quot;quoted&quot;",
+            "<span class=\"quote\">&gt;implying</span><br>next line",
+            "<a href=\"#p123\" class=\"quotelink\">&gt;&gt;123</a><br>" +
+                    "<a href=\"/g/thread/1#p2\" class=\"quotelink\">&gt;&gt;&gt;/g/1</a>",
+            "<s>spoiler</s> and <b><i>nested</i> bold</b>",
+            "line one<br><br>line  two\n with\twhitespace \n",
+            "<span class='deadlink'>&gt;&gt;5</span>",
+            "<a href=\"https://example.com/?a=1&amp;b=2\" target=_blank rel=\"nofollow\">link</a>",
+            "<a title=\"a > b\" href = 'x'>quoted &gt;</a>",
+            "<span CLASS=\"Quote  Fortune\" style=\"color:#fd4d32\">x</span>",
+            "<br/>after<hr>",
+            "zero\u200bwidth and non\u00a0breaking\u00ad spaces",
+            "<p>one</p><p>two</p>",
+            "<u><b><i><s>deep</s></i></b></u>tail",
+            "a > b"
+    };
+
+    private static final String[] MALFORMED = {
+            "<b>unclosed",
+            "closed</b>",
+            "<b><i>x</b></i>",
+            "1 < 2",
+            "<3",
+            "<!-- comment -->",
+            "<!DOCTYPE html>",
+            "<script>x</script>",
+            "<style>x</style>",
+            "<b",
+            "<a href=\"x>",
+            "<span/>"
+    };
+
+    @Test
+    public void testWalkLikeJsoup() {
+        for (String html : WELL_FORMED) {
+            HtmlTokenizer tokenizer = new HtmlTokenizer(html);
+            assertTrue(html, tokenizer.tokenize());
+
+            EventRecorder recorder = new EventRecorder();
+            tokenizer.walk(recorder);
+
+            EventRecorder expected = new EventRecorder();
+            for (Node node : Jsoup.parseBodyFragment(html).body().childNodes()) {
+                walkJsoup(node, expected);
+            }
+
+            assertEquals(html, expected.events, recorder.events);
+        }
+    }
+
+    @Test
+    public void testRejectsMalformed() {
+        for (String html : MALFORMED) {
+            assertFalse(html, new HtmlTokenizer(html).tokenize());
+        }
+    }
+
+    @Test
+    public void testAttributes() {
+        HtmlTag tag = firstTag("<a HREF=\"#p1\" class=\"QuoteLink  dead\" title='a &amp; b' " +
+                "data-x=1 hidden>x</a>");
+        assertEquals("a", tag.tagName());
+        assertEquals("#p1", tag.attr("href"));
+        assertEquals("a & b", tag.attr("title"));
+        assertEquals("1", tag.attr("data-x"));
+        assertEquals("", tag.attr("hidden"));
+        assertEquals("", tag.attr("missing"));
+        assertTrue(tag.hasClass("quotelink"));
+        assertTrue(tag.hasClass("DEAD"));
+        assertFalse(tag.hasClass("quote"));
+        assertEquals(Arrays.asList("quotelink", "dead"), Arrays.asList(tag.classNames()));
+
+        assertEquals(0, firstTag("<b>x</b>").classNames().length);
+    }
+
+    @Test
+    public void testElement() {
+        Element element = firstTag("<a href=\"#p1\">&gt;&gt;1</a> tail").element();
+        assertEquals("a", element.tagName());
+        assertEquals("#p1", element.attr("href"));
+        assertEquals(">>1", element.text());
+    }
+
+    private HtmlTag firstTag(String html) {
+        HtmlTokenizer tokenizer = new HtmlTokenizer(html);
+        assertTrue(tokenizer.tokenize());
+        final List<HtmlTag> tags = new ArrayList<>();
+        tokenizer.walk(new HtmlTokenizer.Handler() {
+            @Override
+            public void onStartTag(HtmlTag tag) {
+                tags.add(tag);
+            }
+
+            @Override
+            public void onEndTag(HtmlTag tag) {
+            }
+
+            @Override
+            public void onText(String text) {
+            }
+        });
+        return tags.get(0);
+    }
+
+    private void walkJsoup(Node node, EventRecorder recorder) {
+        if (node instanceof TextNode) {
+            recorder.onText(((TextNode) node).text());
+        } else if (node instanceof Element) {
+            HtmlTag tag = new HtmlTag.JsoupTag((Element) node);
+            recorder.onStartTag(tag);
+            for (Node child : node.childNodes()) {
+                walkJsoup(child, recorder);
+            }
+            recorder.onEndTag(tag);
+        }
+    }
+
+    private static class EventRecorder implements HtmlTokenizer.Handler {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onStartTag(HtmlTag tag) {
+            events.add("<" + tag.tagName() + " class=" + Arrays.toString(tag.classNames()) +
+                    " href=" + tag.attr("href") + " title=" + tag.attr("title") +
+                    (tag.hasNextSibling() ? " +" : "") + ">");
+        }
+
+        @Override
+        public void onEndTag(HtmlTag tag) {
+            events.add("</" + tag.tagName() + ">");
+        }
+
+        @Override
+        public void onText(String text) {
+            events.add("[" + text + "]");
+        }
+    }
+}